@@ -0,0 +1,80 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import benchmarks.Config;
+import benchmarks.Target;
+
+/**
+ * Replays the node references of a search for every sequence of the GBK
+ * file, in file order, against a Cache with the configured policy. The
+ * references are those of a tree of the configured degree whose nodes are
+ * all full, root first: the node on every level follows from the rank of
+ * the sequence.
+ */
+public class CacheTarget implements Target {
+
+	private long[] references;
+	private int next;
+
+	private Cache<Object> cache;
+	private Object node;
+
+	public void setUp(Config config) throws Exception {
+		long[] sequences = Fixtures.sequences(config.gbkFile,
+				config.sequenceLength);
+		long[] sorted = Fixtures.count(sequences.clone(),
+				new int[sequences.length]);
+
+		int keysPerNode = 2 * config.degree - 1;
+		int fanout = 2 * config.degree;
+
+		// Number of nodes on every level, from the leaves up to the root
+		ArrayList<Long> levels = new ArrayList<Long>();
+		long nodes = Math.max(1, (sorted.length + keysPerNode - 1) / keysPerNode);
+		levels.add(nodes);
+		while (nodes > 1) {
+			nodes = (nodes + fanout - 1) / fanout;
+			levels.add(nodes);
+		}
+		int height = levels.size();
+
+		// Nodes are numbered level by level, starting at the root
+		long[] first = new long[height];
+		long number = 1;
+		for (int l = height - 1; l >= 0; l--) {
+			first[l] = number;
+			number += levels.get(l);
+		}
+
+		references = new long[sequences.length * height];
+		int r = 0;
+		for (long sequence : sequences) {
+			long node = Arrays.binarySearch(sorted, sequence) / keysPerNode;
+			for (int l = 0; l < height; l++) {
+				references[r + height - 1 - l] = first[l] + node;
+				node /= fanout;
+			}
+			r += height;
+		}
+
+		cache = new Cache<Object>(config.cacheSize,
+				Cache.Policy.forName(config.variant), null);
+		node = new Object();
+	}
+
+	public long run() throws Exception {
+		if (next == references.length) {
+			next = 0;
+		}
+		long offset = references[next++];
+		Object obj = cache.getObject(offset);
+		if (obj == null) {
+			cache.addObject(offset, node);
+			return 0;
+		}
+		return 1;
+	}
+
+	public void tearDown() {
+	}
+}
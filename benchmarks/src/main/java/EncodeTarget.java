@@ -0,0 +1,32 @@
+import benchmarks.Config;
+import benchmarks.Target;
+
+/**
+ * Encodes the sequences of the GBK file with Sequence(String, int).
+ */
+public class EncodeTarget implements Target {
+
+	private String[] strings;
+	private int sequenceLength;
+	private int next;
+
+	public void setUp(Config config) throws Exception {
+		sequenceLength = config.sequenceLength;
+
+		String[] lines = Fixtures.lines(config.gbkFile, sequenceLength);
+		strings = new String[1 << 16];
+		for (int i = 0; i < strings.length; i++) {
+			String line = lines[i % lines.length];
+			int start = (i / lines.length) % (line.length() - sequenceLength + 1);
+			strings[i] = line.substring(start, start + sequenceLength);
+		}
+	}
+
+	public long run() {
+		String s = strings[next++ & (strings.length - 1)];
+		return new Sequence(s, sequenceLength).val();
+	}
+
+	public void tearDown() {
+	}
+}
@@ -0,0 +1,91 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Reads the benchmark fixtures from GBK files.
+ */
+public class Fixtures {
+
+	/**
+	 * Returns every sequence of the GBK file in the order it occurs, as read
+	 * by GeneBankParser.
+	 * @param gbkFile - GBK file
+	 * @param sequenceLength - length of the sequences
+	 * @return encoded sequences
+	 * @throws IOException
+	 */
+	static long[] sequences(String gbkFile, int sequenceLength)
+			throws IOException {
+
+		final long[][] buffer = { new long[1 << 16] };
+		final int[] size = { 0 };
+
+		GeneBankParser.parse(gbkFile, sequenceLength, new SequenceSink() {
+			public void add(long sequence) {
+				if (size[0] == buffer[0].length) {
+					buffer[0] = Arrays.copyOf(buffer[0], size[0] * 2);
+				}
+				buffer[0][size[0]++] = sequence;
+			}
+		});
+
+		return Arrays.copyOf(buffer[0], size[0]);
+	}
+
+	/**
+	 * Returns the lines of the ORIGIN sections of the GBK file without
+	 * whitespace and numbers, skipping lines shorter than minLength.
+	 * @param gbkFile - GBK file
+	 * @param minLength - minimum length of a line
+	 * @return lines
+	 * @throws IOException
+	 */
+	static String[] lines(String gbkFile, int minLength) throws IOException {
+
+		ArrayList<String> lines = new ArrayList<String>();
+		BufferedReader br = new BufferedReader(new FileReader(gbkFile));
+		String line;
+		boolean origin = false;
+		while ((line = br.readLine()) != null) {
+			if (!origin) {
+				origin = line.contains("ORIGIN");
+			} else if (line.contains("//")) {
+				origin = false;
+			} else {
+				line = line.replaceAll("[\\s\\d]", "");
+				if (line.length() >= minLength) {
+					lines.add(line);
+				}
+			}
+		}
+		br.close();
+
+		return lines.toArray(new String[lines.size()]);
+	}
+
+	/**
+	 * Sorts the sequences and collapses duplicates.
+	 * @param sequences - encoded sequences, sorted in place
+	 * @param frequencies - receives the frequency of every distinct sequence,
+	 *          at least as long as sequences
+	 * @return distinct sequences in increasing order
+	 */
+	static long[] count(long[] sequences, int[] frequencies) {
+
+		Arrays.sort(sequences);
+		int n = 0;
+		for (int i = 0; i < sequences.length;) {
+			int j = i + 1;
+			while (j < sequences.length && sequences[j] == sequences[i]) {
+				j++;
+			}
+			frequencies[n] = j - i;
+			sequences[n++] = sequences[i];
+			i = j;
+		}
+		return Arrays.copyOf(sequences, n);
+	}
+}
@@ -0,0 +1,88 @@
+import java.io.File;
+import java.util.Arrays;
+
+import benchmarks.Config;
+import benchmarks.Target;
+
+/**
+ * Inserts the sequences of the GBK file, in file order, into a LongBTree
+ * ("long") or a BTree<Sequence> ("generic"). "hash" counts the whole file
+ * with a single-threaded KmerCounter and bulk loads the counts into a BTree
+ * at the start of every pass over the sequences, so its time per call is the
+ * cost of that build spread over the sequences of the file.
+ */
+public class InsertTarget implements Target {
+
+	private long[] sequences;
+	private int sequenceLength;
+	private int next;
+
+	private File treeFile;
+	private LongBTree longTree;
+	private BTree<Sequence> genericTree;
+
+	private String gbkFile;
+	private int degree;
+	private boolean hash;
+
+	public void setUp(Config config) throws Exception {
+		sequenceLength = config.sequenceLength;
+		sequences = Fixtures.sequences(config.gbkFile, sequenceLength);
+
+		treeFile = File.createTempFile("benchmark", ".btree");
+		treeFile.deleteOnExit();
+
+		if (config.variant.equals("hash")) {
+			gbkFile = config.gbkFile;
+			degree = config.degree;
+			hash = true;
+		} else if (config.variant.equals("generic")) {
+			genericTree = new BTree<Sequence>(config.degree, sequenceLength,
+					BTree.BLOCK_SIZE, config.cacheSize, Cache.Policy.LRU,
+					treeFile.getPath());
+		} else {
+			longTree = new LongBTree(config.degree, sequenceLength,
+					BTree.BLOCK_SIZE, config.cacheSize, Cache.Policy.LRU,
+					treeFile.getPath());
+		}
+	}
+
+	public long run() throws Exception {
+		if (next == sequences.length) {
+			next = 0;
+		}
+		if (hash && next == 0) {
+			build();
+		}
+		long sequence = sequences[next++];
+		if (longTree != null) {
+			longTree.insert(sequence);
+		} else if (genericTree != null) {
+			genericTree.insert(new Sequence(sequence, sequenceLength));
+		}
+		return sequence;
+	}
+
+	/**
+	 * Counts the GBK file in hash maps and bulk loads the counts, as
+	 * GeneBankCreateBTree --engine=hash does with one thread.
+	 */
+	private void build() throws Exception {
+		KmerCounter counter = new KmerCounter(sequenceLength, 1);
+		counter.count(Arrays.asList(gbkFile));
+		BTreeBulkLoader loader = new BTreeBulkLoader(degree, sequenceLength,
+				BTree.BLOCK_SIZE, treeFile.getPath(), counter.distinctCount(),
+				BTree.LAYOUT_BTREE);
+		counter.load(loader);
+		loader.finish();
+	}
+
+	public void tearDown() throws Exception {
+		if (longTree != null) {
+			longTree.close();
+		} else if (genericTree != null) {
+			genericTree.close();
+		}
+		treeFile.delete();
+	}
+}
@@ -0,0 +1,100 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import benchmarks.BaselineTarget;
+import benchmarks.Config;
+
+/**
+ * Searches one full node of the configured degree with the node search of
+ * LongBTree ("long", keys in a long[]) or of MappedBTree ("mapped", keys in
+ * the node layout of the file, in a direct buffer). Every node holds
+ * 2 * degree - 1 sorted random keys and is searched for random keys, so that
+ * nearly every search misses like a search in an internal node does.
+ *
+ * The baseline is the linear scan from the last key down that both trees
+ * used before the binary search.
+ */
+public class NodeSearchTarget implements BaselineTarget {
+
+	private final static int NODES = 1024;
+
+	/**
+	 * Offset, number of keys and leaf flag, followed by the keys.
+	 */
+	private final static int KEYS_POS = 13;
+	private final static int KEY_SIZE = 12;
+
+	private long[][] nodes;
+	private ByteBuffer segment;
+	private int nodeSize;
+	private long[] queries;
+	private int next;
+
+	public void setUp(Config config) throws Exception {
+		Random random = new Random(42);
+		int n = 2 * config.degree - 1;
+
+		nodes = new long[NODES][n];
+		for (long[] keys : nodes) {
+			for (int i = 0; i < n; i++) {
+				keys[i] = random.nextLong() >>> 2;
+			}
+			Arrays.sort(keys);
+		}
+
+		if (config.variant.equals("mapped")) {
+			nodeSize = KEYS_POS + n * KEY_SIZE;
+			segment = ByteBuffer.allocateDirect(NODES * nodeSize);
+			for (int j = 0; j < NODES; j++) {
+				int pos = j * nodeSize;
+				segment.putLong(pos, pos);
+				segment.putInt(pos + 8, n);
+				segment.put(pos + 12, (byte) 0);
+				for (int i = 0; i < n; i++) {
+					segment.putLong(pos + KEYS_POS + i * KEY_SIZE, nodes[j][i]);
+					segment.putInt(pos + KEYS_POS + i * KEY_SIZE + 8, 1);
+				}
+			}
+			nodes = null;
+		}
+
+		queries = new long[1 << 16];
+		for (int i = 0; i < queries.length; i++) {
+			queries[i] = random.nextLong() >>> 2;
+		}
+	}
+
+	public long run() {
+		int q = next++;
+		long key = queries[q & (queries.length - 1)];
+		if (segment != null) {
+			return MappedBTree.floorIndex(segment, (q & (NODES - 1)) * nodeSize,
+					key);
+		}
+		long[] keys = nodes[q & (NODES - 1)];
+		return LongBTree.floorIndex(keys, keys.length, key);
+	}
+
+	public long runBaseline() {
+		int q = next++;
+		long key = queries[q & (queries.length - 1)];
+		if (segment != null) {
+			int pos = (q & (NODES - 1)) * nodeSize;
+			int i = segment.getInt(pos + 8) - 1;
+			while (i >= 0 && key < segment.getLong(pos + KEYS_POS + i * KEY_SIZE)) {
+				i--;
+			}
+			return i;
+		}
+		long[] keys = nodes[q & (NODES - 1)];
+		int i = keys.length - 1;
+		while (i >= 0 && key < keys[i]) {
+			i--;
+		}
+		return i;
+	}
+
+	public void tearDown() {
+	}
+}
@@ -0,0 +1,28 @@
+import benchmarks.Config;
+import benchmarks.Target;
+
+/**
+ * Splits the ORIGIN lines of the GBK file into sequences with
+ * Sequence.parseSequences().
+ */
+public class ParseTarget implements Target {
+
+	private String[] lines;
+	private int sequenceLength;
+	private int next;
+
+	public void setUp(Config config) throws Exception {
+		sequenceLength = config.sequenceLength;
+		lines = Fixtures.lines(config.gbkFile, sequenceLength);
+	}
+
+	public long run() {
+		if (next == lines.length) {
+			next = 0;
+		}
+		return Sequence.parseSequences(lines[next++], sequenceLength).length;
+	}
+
+	public void tearDown() {
+	}
+}
@@ -0,0 +1,105 @@
+import java.io.File;
+import java.util.Random;
+
+import benchmarks.Config;
+import benchmarks.Target;
+
+/**
+ * Searches a tree bulk loaded from the GBK file with a LongBTree ("long"), a
+ * BTree<Sequence> ("generic") or a MappedBTree ("mapped"), with a MappedBTree
+ * behind its BloomFilter ("bloom"), or looks up BATCH_SIZE queries at once
+ * with MappedBTree.searchBatch ("batch"). Half of the queries are sequences
+ * of the file, the other half random sequences.
+ */
+public class SearchTarget implements Target {
+
+	private final static int BATCH_SIZE = 1024;
+
+	private long[] queries;
+	private int sequenceLength;
+	private int next;
+
+	private File treeFile;
+	private LongBTree longTree;
+	private BTree<Sequence> genericTree;
+	private MappedBTree mappedTree;
+	private BloomFilter filter;
+	private long[] batch;
+
+	public void setUp(Config config) throws Exception {
+		sequenceLength = config.sequenceLength;
+		long[] sequences = Fixtures.sequences(config.gbkFile, sequenceLength);
+
+		Random random = new Random(42);
+		long mask = (1L << (2 * sequenceLength)) - 1;
+		queries = new long[1 << 16];
+		for (int i = 0; i < queries.length; i++) {
+			queries[i] = i % 2 == 0 ? sequences[random.nextInt(sequences.length)]
+					: random.nextLong() & mask;
+		}
+
+		int[] frequencies = new int[sequences.length];
+		long[] keys = Fixtures.count(sequences, frequencies);
+
+		treeFile = File.createTempFile("benchmark", ".btree");
+		treeFile.deleteOnExit();
+		BTreeBulkLoader loader = new BTreeBulkLoader(config.degree,
+				sequenceLength, config.blockSize, treeFile.getPath(), keys.length);
+		for (int i = 0; i < keys.length; i++) {
+			loader.append(keys[i], frequencies[i]);
+		}
+		loader.finish();
+
+		if (config.variant.equals("generic")) {
+			genericTree = new BTree<Sequence>(treeFile.getPath(), config.cacheSize,
+					Cache.Policy.LRU);
+		} else if (config.variant.equals("mapped")) {
+			mappedTree = new MappedBTree(treeFile.getPath());
+		} else if (config.variant.equals("bloom")) {
+			mappedTree = new MappedBTree(treeFile.getPath());
+			BloomFilter.create(treeFile.getPath());
+			filter = BloomFilter.open(treeFile.getPath());
+		} else if (config.variant.equals("batch")) {
+			mappedTree = new MappedBTree(treeFile.getPath());
+			batch = new long[BATCH_SIZE];
+		} else {
+			longTree = new LongBTree(treeFile.getPath(), config.cacheSize,
+					Cache.Policy.LRU);
+		}
+	}
+
+	public long run() throws Exception {
+		if (batch != null) {
+			for (int i = 0; i < batch.length; i++) {
+				batch[i] = queries[next++ & (queries.length - 1)];
+			}
+			return mappedTree.searchBatch(batch).length;
+		}
+		long query = queries[next++ & (queries.length - 1)];
+		if (filter != null && !filter.mightContain(query)) {
+			return 0;
+		}
+		if (longTree != null) {
+			return longTree.frequency(query);
+		} else if (mappedTree != null) {
+			return mappedTree.frequency(query);
+		}
+		Sequence found = genericTree.search(new Sequence(query, sequenceLength));
+		return found == null ? 0 : 1;
+	}
+
+	public void tearDown() throws Exception {
+		if (longTree != null) {
+			longTree.close();
+		} else if (mappedTree != null) {
+			mappedTree.close();
+		} else {
+			genericTree.close();
+		}
+		if (filter != null) {
+			filter.close();
+			new File(BloomFilter.getFileName(treeFile.getPath())).delete();
+		}
+		treeFile.delete();
+	}
+}
@@ -0,0 +1,42 @@
+import java.io.File;
+
+import benchmarks.Config;
+import benchmarks.Target;
+
+/**
+ * Writes the counted sequences of the GBK file to a new BTree file with
+ * BTreeBulkLoader.
+ */
+public class WriteTarget implements Target {
+
+	private long[] keys;
+	private int[] frequencies;
+	private Config config;
+	private File treeFile;
+
+	public void setUp(Config config) throws Exception {
+		this.config = config;
+		long[] sequences = Fixtures.sequences(config.gbkFile,
+				config.sequenceLength);
+		frequencies = new int[sequences.length];
+		keys = Fixtures.count(sequences, frequencies);
+
+		treeFile = File.createTempFile("benchmark", ".btree");
+		treeFile.deleteOnExit();
+	}
+
+	public long run() throws Exception {
+		BTreeBulkLoader loader = new BTreeBulkLoader(config.degree,
+				config.sequenceLength, BTree.BLOCK_SIZE, treeFile.getPath(),
+				keys.length);
+		for (int i = 0; i < keys.length; i++) {
+			loader.append(keys[i], frequencies[i]);
+		}
+		loader.finish();
+		return treeFile.length();
+	}
+
+	public void tearDown() {
+		treeFile.delete();
+	}
+}
@@ -0,0 +1,15 @@
+package benchmarks;
+
+/**
+ * Target that can also perform its operation the way it was done before an
+ * optimization, on the same fixture, so that a benchmark can measure both.
+ */
+public interface BaselineTarget extends Target {
+
+	/**
+	 * Performs the operation once, the way it was done before.
+	 * @return result of the operation, to be consumed by the benchmark
+	 * @throws Exception
+	 */
+	public long runBaseline() throws Exception;
+}
@@ -0,0 +1,67 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookup of one sequence, as in SearchBenchmark, in trees of the optimal
+ * degree for every block size. The LongBTree reads every node from the file,
+ * without a cache, so larger blocks mean fewer but larger reads; the
+ * MappedBTree shows the cost of the deeper search inside larger nodes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlockSizeBenchmark {
+
+	@Param({ "test5.gbk" })
+	public String gbkFile;
+
+	/**
+	 * "long" for LongBTree, "mapped" for MappedBTree.
+	 */
+	@Param({ "long", "mapped" })
+	public String tree;
+
+	@Param({ "31" })
+	public int sequenceLength;
+
+	/**
+	 * Size of a node in bytes, which sets the degree.
+	 */
+	@Param({ "4096", "16384", "65536" })
+	public int blockSize;
+
+	private Target target;
+
+	@Setup
+	public void setUp() throws Exception {
+		target = Targets.create("SearchTarget", new Config(gbkFile, tree, 0,
+				sequenceLength, 0, blockSize));
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		target.tearDown();
+	}
+
+	@Benchmark
+	public long search() throws Exception {
+		return target.run();
+	}
+}
@@ -0,0 +1,85 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One Cache.getObject() call, followed by addObject() on a miss, for the
+ * node offsets referenced by a LongBTree while it is built from the GBK
+ * file. The hits and misses are reported next to the time, their ratio is
+ * the hit ratio of the policy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheGetBenchmark {
+
+	@Param({ "test5.gbk" })
+	public String gbkFile;
+
+	/**
+	 * Eviction policy, see Cache.Policy.
+	 */
+	@Param({ "lru", "2q", "tinylfu" })
+	public String policy;
+
+	@Param({ "8" })
+	public int degree;
+
+	@Param({ "31" })
+	public int sequenceLength;
+
+	@Param({ "100", "500", "5000" })
+	public int cacheSize;
+
+	private Target target;
+
+	/**
+	 * Number of getObject() calls that found the node and that did not.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Counters {
+
+		public long hits;
+		public long misses;
+	}
+
+	@Setup
+	public void setUp() throws Exception {
+		target = Targets.create("CacheTarget", new Config(gbkFile, policy, degree,
+				sequenceLength, cacheSize));
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		target.tearDown();
+	}
+
+	@Benchmark
+	public long getObject(Counters counters) throws Exception {
+		long hit = target.run();
+		if (hit == 1) {
+			counters.hits++;
+		} else {
+			counters.misses++;
+		}
+		return hit;
+	}
+}
@@ -0,0 +1,50 @@
+package benchmarks;
+
+import java.io.File;
+
+/**
+ * Parameters of a benchmark. GBK fixtures are read from the directory named
+ * by the system property "fixtures", data/ by default, so benchmarks are
+ * normally run from the root of the repository.
+ */
+public class Config {
+
+	public final String gbkFile;
+	public final String variant;
+	public final int degree;
+	public final int sequenceLength;
+	public final int cacheSize;
+	public final int blockSize;
+
+	/**
+	 * Creates parameters with a block size of 4096 bytes.
+	 * @param gbkFile - name of a GBK file in the fixture directory
+	 * @param variant - implementation to measure, depends on the benchmark
+	 * @param degree - degree of the tree, 0 for the optimal degree
+	 * @param sequenceLength - length of the sequences
+	 * @param cacheSize - number of cached nodes
+	 */
+	public Config(String gbkFile, String variant, int degree,
+			int sequenceLength, int cacheSize) {
+		this(gbkFile, variant, degree, sequenceLength, cacheSize, 4096);
+	}
+
+	/**
+	 * @param gbkFile - name of a GBK file in the fixture directory
+	 * @param variant - implementation to measure, depends on the benchmark
+	 * @param degree - degree of the tree, 0 for the optimal degree
+	 * @param sequenceLength - length of the sequences
+	 * @param cacheSize - number of cached nodes
+	 * @param blockSize - size of a node block in bytes
+	 */
+	public Config(String gbkFile, String variant, int degree,
+			int sequenceLength, int cacheSize, int blockSize) {
+		this.gbkFile = new File(System.getProperty("fixtures", "data"), gbkFile)
+				.getPath();
+		this.variant = variant;
+		this.degree = degree;
+		this.sequenceLength = sequenceLength;
+		this.cacheSize = cacheSize;
+		this.blockSize = blockSize;
+	}
+}
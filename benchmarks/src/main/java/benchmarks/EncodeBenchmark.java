@@ -0,0 +1,52 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding of one sequence with Sequence(String, int).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark {
+
+	@Param({ "test5.gbk" })
+	public String gbkFile;
+
+	@Param({ "1", "7", "16", "31" })
+	public int sequenceLength;
+
+	private Target target;
+
+	@Setup
+	public void setUp() throws Exception {
+		target = Targets.create("EncodeTarget", new Config(gbkFile, "", 0,
+				sequenceLength, 0));
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		target.tearDown();
+	}
+
+	@Benchmark
+	public long encode() throws Exception {
+		return target.run();
+	}
+}
@@ -0,0 +1,68 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Insertion of one sequence, in the order the sequences occur in the GBK
+ * file, into a tree that starts out empty. Once every sequence has been
+ * inserted the file is inserted again, incrementing frequencies. The hash
+ * variant counts and bulk loads the whole file again instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InsertBenchmark {
+
+	@Param({ "test5.gbk" })
+	public String gbkFile;
+
+	/**
+	 * "long" for LongBTree, "generic" for BTree<Sequence>, "hash" for
+	 * KmerCounter and a bulk load, timed per sequence of the file.
+	 */
+	@Param({ "long", "generic", "hash" })
+	public String tree;
+
+	@Param({ "0", "8", "102" })
+	public int degree;
+
+	@Param({ "7", "31" })
+	public int sequenceLength;
+
+	@Param({ "0", "500" })
+	public int cacheSize;
+
+	private Target target;
+
+	@Setup
+	public void setUp() throws Exception {
+		target = Targets.create("InsertTarget", new Config(gbkFile, tree, degree,
+				sequenceLength, cacheSize));
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		target.tearDown();
+	}
+
+	@Benchmark
+	public long insert() throws Exception {
+		return target.run();
+	}
+}
@@ -0,0 +1,63 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Search inside one full node of the specified degree, with the binary node
+ * search of LongBTree and of MappedBTree (search) and with the linear scan
+ * they used before (linear), on the same nodes and queries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NodeSearchBenchmark {
+
+	/**
+	 * "long" for the keys of a LongBTree node, "mapped" for a node of a
+	 * MappedBTree.
+	 */
+	@Param({ "long", "mapped" })
+	public String tree;
+
+	@Param({ "2", "8", "32", "102", "409", "1638" })
+	public int degree;
+
+	private BaselineTarget target;
+
+	@Setup
+	public void setUp() throws Exception {
+		target = (BaselineTarget) Targets.create("NodeSearchTarget", new Config(
+				"", tree, degree, 0, 0));
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		target.tearDown();
+	}
+
+	@Benchmark
+	public long search() throws Exception {
+		return target.run();
+	}
+
+	@Benchmark
+	public long linear() throws Exception {
+		return target.runBaseline();
+	}
+}
@@ -0,0 +1,71 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookup of one sequence in a tree built from the GBK file. Half of the
+ * lookups are for sequences in the file, the other half for random
+ * sequences, which are nearly always missing for long sequences.
+ *
+ * The trees are compared on one geometry, 4096 byte blocks of the optimal
+ * degree; BlockSizeBenchmark measures other block sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+
+	/**
+	 * Number of cached nodes of the trees that read nodes through a cache,
+	 * long and generic. The mapped trees have no cache.
+	 */
+	private final static int CACHE_SIZE = 500;
+
+	@Param({ "test5.gbk" })
+	public String gbkFile;
+
+	/**
+	 * "long" for LongBTree, "generic" for BTree<Sequence>, "mapped" for
+	 * MappedBTree, "bloom" for MappedBTree behind its BloomFilter, "batch" for
+	 * batches of 1024 lookups in a MappedBTree.
+	 */
+	@Param({ "long", "generic", "mapped", "bloom", "batch" })
+	public String tree;
+
+	@Param({ "7", "31" })
+	public int sequenceLength;
+
+	private Target target;
+
+	@Setup
+	public void setUp() throws Exception {
+		target = Targets.create("SearchTarget", new Config(gbkFile, tree, 0,
+				sequenceLength, CACHE_SIZE));
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		target.tearDown();
+	}
+
+	@Benchmark
+	public long search() throws Exception {
+		return target.run();
+	}
+}
@@ -0,0 +1,31 @@
+package benchmarks;
+
+/**
+ * Operation measured by a benchmark. JMH does not accept benchmarks in the
+ * default package and the default package cannot be imported, so every
+ * benchmark in this package drives an implementation in the default package
+ * (see Targets.create()). Each fork of a benchmark loads exactly one
+ * implementation, so the calls through this interface are inlined.
+ */
+public interface Target {
+
+	/**
+	 * Prepares the fixture.
+	 * @param config - parameters of the benchmark
+	 * @throws Exception
+	 */
+	public void setUp(Config config) throws Exception;
+
+	/**
+	 * Performs the operation once.
+	 * @return result of the operation, to be consumed by the benchmark
+	 * @throws Exception
+	 */
+	public long run() throws Exception;
+
+	/**
+	 * Releases the fixture.
+	 * @throws Exception
+	 */
+	public void tearDown() throws Exception;
+}
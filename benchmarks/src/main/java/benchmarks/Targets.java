@@ -0,0 +1,20 @@
+package benchmarks;
+
+public class Targets {
+
+	/**
+	 * Creates and sets up the target with the specified class name, which
+	 * must be in the default package.
+	 * @param className - name of the target class
+	 * @param config - parameters of the benchmark
+	 * @return target
+	 * @throws Exception
+	 */
+	public static Target create(String className, Config config)
+			throws Exception {
+		Target target = (Target) Class.forName(className)
+				.getDeclaredConstructor().newInstance();
+		target.setUp(config);
+		return target;
+	}
+}
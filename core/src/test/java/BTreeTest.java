@@ -0,0 +1,102 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Geometry and inserts of the generic BTree.
+ */
+class BTreeTest {
+
+	@TempDir
+	File dir;
+
+	@Test
+	void optimalDegreeIsTheLargestThatFits() {
+		assertEquals(102, BTree.optimalDegree(4096));
+		for (int blockSize = BTree.BLOCK_SIZE; blockSize <= BTree.MAX_BLOCK_SIZE; blockSize *= 2) {
+			int degree = BTree.optimalDegree(blockSize);
+			assertTrue(BTree.nodeSize(degree) <= blockSize, "block size " + blockSize);
+			assertTrue(BTree.nodeSize(degree + 1) > blockSize, "block size " + blockSize);
+		}
+	}
+
+	@Test
+	void blockSizeIsAPowerOfTwoInRange() {
+		assertTrue(BTree.isValidBlockSize(4096));
+		assertTrue(BTree.isValidBlockSize(65536));
+		assertFalse(BTree.isValidBlockSize(2048));
+		assertFalse(BTree.isValidBlockSize(6144));
+		assertFalse(BTree.isValidBlockSize(131072));
+	}
+
+	@Test
+	void existingKeyIsIncrementedInOneDescent() throws IOException {
+		String gbkFile = Reference.fixture("test2.gbk");
+		String treeFile = new File(dir, "tree").getPath();
+		BTree<Sequence> btree = new BTree<Sequence>(3, 6, BTree.BLOCK_SIZE, 9,
+				Cache.Policy.LRU, treeFile);
+		GeneBankCreateBTree.insertSequences(gbkFile, 6, btree);
+		int height = btree.getHeight();
+		assertTrue(btree.getNodeVisits() <= btree.getInsertCount() * height);
+
+		// Every key is in the tree, so no insert splits. Every node below the
+		// root is read through the cache, so a search before the insert would
+		// show as more reads than levels.
+		TreeMap<Long, Integer> expected = Reference.count(6, false, gbkFile);
+		Cache<?> cache = btree.getCache();
+		for (long key : expected.keySet()) {
+			long visits = btree.getNodeVisits();
+			int reads = cache.getReferenceCount();
+			btree.insert(new Sequence(key, 6));
+			long descent = btree.getNodeVisits() - visits;
+			assertTrue(descent >= 1 && descent <= height, descent + " visits");
+			assertTrue(cache.getReferenceCount() - reads <= height - 1,
+					cache.getReferenceCount() - reads + " reads");
+		}
+		assertEquals(height, btree.getHeight());
+		btree.close();
+
+		KmerIndex index = KmerIndex.open(treeFile);
+		for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+			assertEquals(entry.getValue() + 1, index.frequency(entry.getKey()));
+		}
+		index.close();
+	}
+
+	@Test
+	void openedTreeIsNotWritten() throws IOException {
+		String gbkFile = Reference.fixture("test2.gbk");
+		File treeFile = new File(dir, "tree");
+		BTree<Sequence> btree = new BTree<Sequence>(3, 6, BTree.BLOCK_SIZE, 0,
+				Cache.Policy.LRU, treeFile.getPath());
+		GeneBankCreateBTree.insertSequences(gbkFile, 6, btree);
+		btree.close();
+		byte[] written = Files.readAllBytes(treeFile.toPath());
+		assertTrue(treeFile.setLastModified(1000000000000L));
+
+		// Searched through a cache, which must not write back clean nodes
+		btree = new BTree<Sequence>(treeFile.getPath(), 9, Cache.Policy.LRU);
+		TreeMap<Long, Integer> expected = Reference.count(6, false, gbkFile);
+		for (long key : expected.keySet()) {
+			assertEquals(key, btree.search(new Sequence(key, 6)).val());
+		}
+		BTree<Sequence> opened = btree;
+		assertThrows(IllegalStateException.class,
+				() -> opened.insert(new Sequence(0L, 6)));
+		btree.close();
+
+		assertArrayEquals(written, Files.readAllBytes(treeFile.toPath()));
+		assertEquals(1000000000000L, treeFile.lastModified());
+	}
+}
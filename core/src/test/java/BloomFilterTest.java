@@ -0,0 +1,154 @@
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The Bloom filter never rejects a stored sequence, rejects most missing
+ * ones, and is only used with the tree it was written for.
+ */
+class BloomFilterTest {
+
+	@TempDir
+	File dir;
+
+	@Test
+	void addedKeysAreFoundAndFewOthers() {
+		Random random = new Random(42);
+		Set<Long> keys = new HashSet<Long>();
+		while (keys.size() < 100000) {
+			keys.add(random.nextLong() >>> 2);
+		}
+		BloomFilter filter = new BloomFilter(keys.size());
+		for (long key : keys) {
+			filter.add(key);
+		}
+		for (long key : keys) {
+			assertTrue(filter.mightContain(key));
+		}
+
+		int falsePositives = 0;
+		for (int i = 0; i < 100000; i++) {
+			long key = random.nextLong() >>> 2;
+			if (!keys.contains(key) && filter.mightContain(key)) {
+				falsePositives++;
+			}
+		}
+		assertTrue(falsePositives < 1000, falsePositives + " false positives");
+	}
+
+	@Test
+	void createdFilterHoldsEverySequenceOfTheTree() throws IOException {
+		String gbkFile = Reference.fixture("test3.gbk");
+		String treeFile = bulkLoad(gbkFile, 9, "tree");
+		BloomFilter.create(treeFile);
+
+		BloomFilter filter = BloomFilter.open(treeFile);
+		assertNotNull(filter);
+		for (long key : Reference.count(9, false, gbkFile).keySet()) {
+			assertTrue(filter.mightContain(key), "key " + key);
+		}
+		filter.close();
+	}
+
+	@Test
+	void filterOfAnotherTreeIsIgnored() throws IOException {
+		String treeFile = bulkLoad(Reference.fixture("test3.gbk"), 9, "tree");
+		assertNull(BloomFilter.open(treeFile));
+
+		// The filter of a tree of other sequences, with the same length
+		String otherFile = bulkLoad(Reference.fixture("test2.gbk"), 9, "other");
+		BloomFilter.create(otherFile);
+		Files.copy(new File(BloomFilter.getFileName(otherFile)).toPath(),
+				new File(BloomFilter.getFileName(treeFile)).toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		RandomAccessFile filterFile = new RandomAccessFile(
+				BloomFilter.getFileName(treeFile), "rw");
+		filterFile.writeLong(new File(treeFile).length());
+		filterFile.close();
+		assertNull(BloomFilter.open(treeFile));
+		assertFalse(BloomFilter.verify(treeFile));
+
+		// The filter of the tree itself, once the tree has grown
+		BloomFilter.create(treeFile);
+		BloomFilter filter = BloomFilter.open(treeFile);
+		assertNotNull(filter);
+		filter.close();
+		assertTrue(BloomFilter.verify(treeFile));
+		RandomAccessFile tree = new RandomAccessFile(treeFile, "rw");
+		tree.setLength(tree.length() + BTree.BLOCK_SIZE);
+		tree.close();
+		assertNull(BloomFilter.open(treeFile));
+	}
+
+	@Test
+	void filterOfAChangedTreeIsOnlyRejectedByVerify() throws IOException {
+		// A frequency changed in place keeps the length and the build id
+		String treeFile = bulkLoad(Reference.fixture("test3.gbk"), 9, "tree");
+		BloomFilter.create(treeFile);
+		assertTrue(BloomFilter.verify(treeFile));
+		RandomAccessFile tree = new RandomAccessFile(treeFile, "rw");
+		tree.seek(BTree.BLOCK_SIZE + 13 + 8);
+		tree.writeInt(tree.readInt() + 1);
+		tree.close();
+
+		BloomFilter filter = BloomFilter.open(treeFile);
+		assertNotNull(filter);
+		filter.close();
+		assertFalse(BloomFilter.verify(treeFile));
+	}
+
+	@Test
+	void everyWriteOfATreeGetsANewBuildId() throws IOException {
+		// Inserting the same sequences again writes an identical tree
+		String gbkFile = Reference.fixture("test2.gbk");
+		String treeFile = new File(dir, "tree").getPath();
+		long[] buildIds = new long[2];
+		for (int i = 0; i < buildIds.length; i++) {
+			LongBTree btree = new LongBTree(0, 9, BTree.BLOCK_SIZE, 0,
+					Cache.Policy.LRU, treeFile);
+			GeneBankParser.parse(gbkFile, 9, btree);
+			btree.close();
+			BloomFilter.create(treeFile);
+			MappedBTree mapped = new MappedBTree(treeFile);
+			buildIds[i] = mapped.getBuildId();
+			mapped.close();
+		}
+		assertNotEquals(buildIds[0], buildIds[1]);
+
+		// Opened, searched and closed, the tree keeps its id and its filter
+		LongBTree btree = new LongBTree(treeFile);
+		btree.frequency(0);
+		btree.close();
+		assertNotNull(BloomFilter.open(treeFile));
+	}
+
+	private String bulkLoad(String gbkFile, int sequenceLength, String name)
+			throws IOException {
+		TreeMap<Long, Integer> counts = Reference.count(sequenceLength, false,
+				gbkFile);
+		String treeFile = new File(dir, name).getPath();
+		BTreeBulkLoader loader = new BTreeBulkLoader(0, sequenceLength,
+				BTree.BLOCK_SIZE, treeFile, counts.size(), BTree.LAYOUT_BPLUS);
+		for (Map.Entry<Long, Integer> entry : counts.entrySet()) {
+			loader.append(entry.getKey(), entry.getValue());
+		}
+		loader.finish();
+		return treeFile;
+	}
+}
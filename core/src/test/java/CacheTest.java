@@ -0,0 +1,196 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * Eviction and write-back of the Cache, for every policy.
+ */
+class CacheTest {
+
+	/**
+	 * Records how often every key was written back, and the last object.
+	 */
+	private static class Writes implements Cache.WriteBack<String> {
+
+		Map<Long, Integer> counts = new HashMap<Long, Integer>();
+		Map<Long, String> objects = new HashMap<Long, String>();
+
+		public void write(long key, String obj) {
+			counts.merge(key, 1, Integer::sum);
+			objects.put(key, obj);
+		}
+	}
+
+	@Test
+	void lruEvictsLeastRecentlyUsed() throws IOException {
+		Cache<String> cache = new Cache<String>(3, Cache.Policy.LRU, null);
+		cache.addObject(1, "1");
+		cache.addObject(2, "2");
+		cache.addObject(3, "3");
+		assertEquals("1", cache.getObject(1));
+		cache.addObject(4, "4");
+
+		assertNull(cache.getObject(2));
+		assertEquals("1", cache.getObject(1));
+		assertEquals("3", cache.getObject(3));
+		assertEquals("4", cache.getObject(4));
+		assertEquals(5, cache.getReferenceCount());
+		assertEquals(4, cache.getHitCount());
+	}
+
+	@ParameterizedTest
+	@EnumSource(Cache.Policy.class)
+	void holdsAtMostMaxSizeObjects(Cache.Policy policy) throws IOException {
+		Cache<String> cache = new Cache<String>(16, policy, null);
+		for (long key = 0; key < 1000; key++) {
+			cache.addObject(key, Long.toString(key));
+			cache.getObject(key % 7);
+		}
+
+		int cached = 0;
+		for (long key = 0; key < 1000; key++) {
+			if (cache.getObject(key) != null) {
+				cached++;
+			}
+		}
+		assertTrue(cached > 0 && cached <= 16, policy + ": " + cached);
+	}
+
+	@ParameterizedTest
+	@EnumSource(Cache.Policy.class)
+	void dirtyObjectsAreWrittenBackOnce(Cache.Policy policy) throws IOException {
+		// Even keys are dirty, odd keys clean; most are evicted, the rest flushed
+		Writes writes = new Writes();
+		Cache<String> cache = new Cache<String>(8, policy, writes);
+		for (long key = 0; key < 200; key++) {
+			cache.addObject(key, Long.toString(key), key % 2 == 0);
+			cache.getObject(key / 2);
+		}
+		cache.flush();
+		cache.flush();
+
+		assertEquals(100, writes.counts.size());
+		for (long key = 0; key < 200; key += 2) {
+			assertEquals(Integer.valueOf(1), writes.counts.get(key), policy + ": " + key);
+			assertEquals(Long.toString(key), writes.objects.get(key));
+		}
+	}
+
+	@ParameterizedTest
+	@EnumSource(Cache.Policy.class)
+	void replacedObjectStaysDirty(Cache.Policy policy) throws IOException {
+		Writes writes = new Writes();
+		Cache<String> cache = new Cache<String>(8, policy, writes);
+		cache.addObject(1, "a", true);
+		cache.addObject(1, "b", false);
+		cache.flush();
+		assertEquals("b", writes.objects.get(1L));
+
+		// Written again only once it is dirty again
+		cache.addObject(1, "c", false);
+		cache.flush();
+		cache.addObject(1, "d", true);
+		cache.flush();
+		assertEquals(Integer.valueOf(2), writes.counts.get(1L));
+		assertEquals("d", writes.objects.get(1L));
+	}
+
+	@Test
+	void uncachedDirtyObjectsAreWrittenImmediately() throws IOException {
+		Writes writes = new Writes();
+		Cache<String> cache = new Cache<String>(0, Cache.Policy.LRU, writes);
+		cache.addObject(1, "1", true);
+		cache.addObject(2, "2", false);
+
+		assertEquals(1, writes.counts.size());
+		assertEquals("1", writes.objects.get(1L));
+		assertNull(cache.getObject(1));
+	}
+
+	@Test
+	void removedObjectsAreNotWrittenBack() throws IOException {
+		Writes writes = new Writes();
+		Cache<String> cache = new Cache<String>(4, Cache.Policy.LRU, writes);
+		cache.addObject(1, "1", true);
+		assertEquals("1", cache.removeObject(1));
+		assertNull(cache.removeObject(1));
+		cache.flush();
+
+		assertTrue(writes.counts.isEmpty());
+	}
+
+	@ParameterizedTest
+	@EnumSource(Cache.Policy.class)
+	void pinnedObjectsAreNotEvicted(Cache.Policy policy) throws IOException {
+		Cache<String> cache = new Cache<String>(8, policy, null);
+		for (long key = 0; key < 8; key++) {
+			cache.addObject(key, Long.toString(key));
+		}
+		for (long key = 0; key < 4; key++) {
+			assertTrue(cache.pin(key));
+		}
+		// At most half of the cache is pinned
+		assertFalse(cache.pin(4));
+		assertFalse(cache.pin(100));
+
+		for (long key = 100; key < 300; key++) {
+			cache.addObject(key, Long.toString(key));
+		}
+		for (long key = 0; key < 4; key++) {
+			assertNotNull(cache.getObject(key), policy + ": " + key);
+		}
+
+		cache.unpinAll();
+		assertTrue(cache.pin(299));
+	}
+
+	@Test
+	void unpinnedObjectsAreEvictedAgain() throws IOException {
+		Cache<String> cache = new Cache<String>(4, Cache.Policy.LRU, null);
+		cache.addObject(1, "1");
+		assertTrue(cache.pin(1));
+		for (long key = 2; key < 10; key++) {
+			cache.addObject(key, Long.toString(key));
+		}
+		assertEquals("1", cache.getObject(1));
+
+		cache.unpinAll();
+		for (long key = 10; key < 20; key++) {
+			cache.addObject(key, Long.toString(key));
+		}
+		assertNull(cache.getObject(1));
+	}
+
+	@Test
+	void tinyLfuKeepsFrequentObjectsThroughAScan() throws IOException {
+		assertEquals("hot", scanAfterHotObject(Cache.Policy.TINY_LFU));
+		assertNull(scanAfterHotObject(Cache.Policy.LRU));
+	}
+
+	/**
+	 * Adds an object that is referenced often, then 1000 objects referenced
+	 * once, and returns the first object if it is still cached.
+	 */
+	private static String scanAfterHotObject(Cache.Policy policy)
+			throws IOException {
+		Cache<String> cache = new Cache<String>(100, policy, null);
+		cache.addObject(-1, "hot");
+		for (int i = 0; i < 10; i++) {
+			cache.getObject(-1);
+		}
+		for (long key = 0; key < 1000; key++) {
+			cache.addObject(key, Long.toString(key));
+		}
+		return cache.getObject(-1);
+	}
+}
@@ -0,0 +1,229 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Every engine and layout of GeneBankCreateBTree must count exactly the
+ * sequences Reference counts. Each tree is checked with a lookup of every
+ * sequence and as many random ones, a batch lookup and a full scan.
+ */
+class EngineTest {
+
+	@TempDir
+	File dir;
+
+	private String treeFile() {
+		return new File(dir, "tree").getPath();
+	}
+
+	@ParameterizedTest
+	@CsvSource({ "2, 0, lru", "3, 7, lru", "3, 7, 2q", "3, 7, tinylfu",
+			"8, 50, 2q", "0, 10, tinylfu" })
+	void insertMatchesReference(int degree, int cacheSize, String policy)
+			throws IOException {
+		// Small caches evict and write back nodes all through the build
+		String gbkFile = Reference.fixture("test3.gbk");
+		LongBTree btree = new LongBTree(degree, 7, BTree.BLOCK_SIZE, cacheSize,
+				Cache.Policy.forName(policy), treeFile());
+		GeneBankParser.parse(gbkFile, 7, btree);
+		btree.close();
+
+		TreeMap<Long, Integer> expected = Reference.count(7, false, gbkFile);
+		LongBTree reopened = new LongBTree(treeFile(), cacheSize,
+				Cache.Policy.forName(policy));
+		assertMatches(expected, reopened);
+		reopened.close();
+		assertMatches(expected, KmerIndex.open(treeFile()));
+	}
+
+	@Test
+	void genericMatchesReference() throws IOException {
+		String gbkFile = Reference.fixture("test2.gbk");
+		BTree<Sequence> btree = new BTree<Sequence>(3, 6, BTree.BLOCK_SIZE, 9,
+				Cache.Policy.LRU, treeFile());
+		GeneBankCreateBTree.insertSequences(gbkFile, 6, btree);
+		btree.close();
+
+		TreeMap<Long, Integer> expected = Reference.count(6, false, gbkFile);
+		BTree<Sequence> reopened = new BTree<Sequence>(treeFile());
+		for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+			assertTrue(reopened.search(new Sequence(entry.getKey(), 6)) != null);
+		}
+		reopened.close();
+		assertMatches(expected, KmerIndex.open(treeFile()));
+	}
+
+	@ParameterizedTest
+	@CsvSource({ "0, 2, 1000", "0, 0, 1000", "0, 0, 8388608", "1, 2, 1000",
+			"1, 0, 1000", "2, 0, 1000", "2, 0, 8388608" })
+	void bulkLayoutsMatchReference(int layout, int degree, int bufferSize)
+			throws IOException {
+		// A small buffer spills the sorter to several runs
+		String gbkFile = Reference.fixture("test3.gbk");
+		SequenceSorter sorter = new SequenceSorter(bufferSize);
+		GeneBankParser.parse(gbkFile, 12, sorter);
+		BTreeBulkLoader loader = new BTreeBulkLoader(degree, 12,
+				BTree.BLOCK_SIZE, treeFile(), sorter.distinctCount(), layout);
+		sorter.load(loader);
+		loader.finish();
+		sorter.close();
+
+		TreeMap<Long, Integer> expected = Reference.count(12, false, gbkFile);
+		assertMatches(expected, KmerIndex.open(treeFile()));
+		if (layout != BTree.LAYOUT_COMPRESSED) {
+			LongBTree btree = new LongBTree(treeFile());
+			assertMatches(expected, btree);
+			btree.close();
+		}
+	}
+
+	@ParameterizedTest
+	@CsvSource({ "1, 4194304", "3, 4194304", "3, 100", "2, 7" })
+	void hashEngineMatchesReference(int threads, long chunkSize)
+			throws IOException {
+		// Chunks of a few bytes split sequences between every pair of tasks
+		String[] gbkFiles = { Reference.fixture("test2.gbk"),
+				Reference.fixture("test3.gbk"), Reference.fixture("test0.gbk") };
+		KmerCounter counter = new KmerCounter(9, threads, chunkSize);
+		counter.count(Arrays.asList(gbkFiles));
+		BTreeBulkLoader loader = new BTreeBulkLoader(0, 9, BTree.BLOCK_SIZE,
+				treeFile(), counter.distinctCount(), BTree.LAYOUT_BTREE);
+		counter.load(loader);
+		loader.finish();
+
+		assertMatches(Reference.count(9, false, gbkFiles),
+				KmerIndex.open(treeFile()));
+	}
+
+	@Test
+	void hashEngineMatchesReferenceOnLargeFile() throws IOException {
+		String gbkFile = Reference.fixture("test5.gbk");
+		KmerCounter counter = new KmerCounter(31, 3, 1 << 16);
+		counter.count(Arrays.asList(gbkFile));
+		BTreeBulkLoader loader = new BTreeBulkLoader(0, 31, BTree.BLOCK_SIZE,
+				treeFile(), counter.distinctCount(), BTree.LAYOUT_COMPRESSED);
+		counter.load(loader);
+		loader.finish();
+
+		assertMatches(Reference.count(31, false, gbkFile),
+				KmerIndex.open(treeFile()));
+	}
+
+	@ParameterizedTest
+	@ValueSource(ints = { 1, 5, 10 })
+	void denseMatchesReference(int sequenceLength) throws IOException {
+		String gbkFile = Reference.fixture("test3.gbk");
+		DenseCounter counter = new DenseCounter(sequenceLength, false);
+		GeneBankParser.parse(gbkFile, sequenceLength, counter);
+		counter.write(treeFile());
+
+		KmerIndex index = KmerIndex.open(treeFile());
+		assertTrue(index instanceof DenseIndex);
+		assertMatches(Reference.count(sequenceLength, false, gbkFile), index);
+	}
+
+	@Test
+	void canonicalEnginesMatchReference() throws IOException {
+		String gbkFile = Reference.fixture("test3.gbk");
+		TreeMap<Long, Integer> expected = Reference.count(11, true, gbkFile);
+
+		LongBTree btree = new LongBTree(0, 11, BTree.BLOCK_SIZE, 20,
+				Cache.Policy.TWO_Q, treeFile());
+		btree.setCanonical(true);
+		GeneBankParser.parse(gbkFile, 11, true, btree);
+		btree.close();
+		KmerIndex index = KmerIndex.open(treeFile());
+		assertTrue(index.isCanonical());
+		assertMatches(expected, index);
+
+		KmerCounter counter = new KmerCounter(11, 2, 500, true);
+		counter.count(Arrays.asList(gbkFile));
+		BTreeBulkLoader loader = new BTreeBulkLoader(0, 11, BTree.BLOCK_SIZE,
+				treeFile(), counter.distinctCount(), BTree.LAYOUT_COMPRESSED);
+		loader.setCanonical(true);
+		counter.load(loader);
+		loader.finish();
+		index = KmerIndex.open(treeFile());
+		assertTrue(index.isCanonical());
+		assertMatches(expected, index);
+
+		DenseCounter dense = new DenseCounter(11, true);
+		GeneBankParser.parse(gbkFile, 11, true, dense);
+		dense.write(treeFile());
+		index = KmerIndex.open(treeFile());
+		assertTrue(index.isCanonical());
+		assertMatches(expected, index);
+	}
+
+	/**
+	 * Checks lookups, batch lookups and a full scan of the index against the
+	 * expected counts, then closes the index.
+	 */
+	private static void assertMatches(TreeMap<Long, Integer> expected,
+			KmerIndex index) throws IOException {
+		long[] keys = keys(expected, index.getSequenceLength());
+		int[] frequencies = new int[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			Integer frequency = expected.get(keys[i]);
+			frequencies[i] = frequency == null ? 0 : frequency;
+			assertEquals(frequencies[i], index.frequency(keys[i]), "key " + keys[i]);
+		}
+		assertArrayEquals(frequencies, index.searchBatch(keys));
+		assertScan(expected, index.rangeScan(0, Long.MAX_VALUE));
+		index.close();
+	}
+
+	private static void assertMatches(TreeMap<Long, Integer> expected,
+			LongBTree btree) throws IOException {
+		long[] keys = keys(expected, btree.getSequenceLength());
+		int[] frequencies = new int[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			Integer frequency = expected.get(keys[i]);
+			frequencies[i] = frequency == null ? 0 : frequency;
+			assertEquals(frequencies[i], btree.frequency(keys[i]), "key " + keys[i]);
+		}
+		assertArrayEquals(frequencies, btree.searchBatch(keys));
+		assertScan(expected, btree.rangeScan(0, Long.MAX_VALUE));
+	}
+
+	/**
+	 * Returns every expected key and as many random keys, most of which are
+	 * missing.
+	 */
+	private static long[] keys(TreeMap<Long, Integer> expected,
+			int sequenceLength) {
+		Random random = new Random(42);
+		long mask = (1L << (2 * sequenceLength)) - 1;
+		long[] keys = new long[2 * expected.size()];
+		int i = 0;
+		for (long key : expected.keySet()) {
+			keys[i++] = key;
+			keys[i++] = random.nextLong() & mask;
+		}
+		return keys;
+	}
+
+	static void assertScan(Map<Long, Integer> expected,
+			SequenceIterator sequences) throws IOException {
+		for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+			assertTrue(sequences.next(), "missing " + entry.getKey());
+			assertEquals(entry.getKey().longValue(), sequences.sequence());
+			assertEquals(entry.getValue().intValue(), sequences.frequency());
+		}
+		assertFalse(sequences.next());
+	}
+}
@@ -0,0 +1,41 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.TreeMap;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * The streaming parser finds the sequences Reference finds, however the
+ * file is split into buffers.
+ */
+class GeneBankParserTest {
+
+	@ParameterizedTest
+	@CsvSource({ "1, 1, false", "7, 1, false", "7, 3, true", "31, 61, false",
+			"12, 4096, true", "31, 65536, true" })
+	void buffersOfAnySizeMatchReference(int sequenceLength, int bufferSize,
+			boolean canonical) throws IOException {
+		String gbkFile = Reference.fixture("test3.gbk");
+		final TreeMap<Long, Integer> counts = new TreeMap<Long, Integer>();
+		GeneBankParser parser = new GeneBankParser(sequenceLength, canonical,
+				new SequenceSink() {
+					public void add(long sequence) {
+						counts.merge(sequence, 1, Integer::sum);
+					}
+				});
+
+		// Every buffer ends part way into a line, a number or a sequence
+		byte[] bytes = Files.readAllBytes(Paths.get(gbkFile));
+		for (int from = 0; from < bytes.length; from += bufferSize) {
+			parser.parse(ByteBuffer.wrap(bytes, from, Math.min(bufferSize,
+					bytes.length - from)));
+		}
+
+		assertEquals(Reference.count(sequenceLength, canonical, gbkFile), counts);
+	}
+}
@@ -0,0 +1,59 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The build finds the GBK fixtures, and Reference counts what it should.
+ */
+class HarnessTest {
+
+	@TempDir
+	File dir;
+
+	@Test
+	void fixturesAreFound() {
+		for (int i = 0; i <= 5; i++) {
+			assertTrue(new File(Reference.fixture("test" + i + ".gbk")).isFile(),
+					Reference.fixture("test" + i + ".gbk"));
+		}
+	}
+
+	@Test
+	void referenceCountsOriginSections() throws IOException {
+		// Only ORIGIN sections count, and no sequence spans an 'n'
+		File gbkFile = new File(dir, "small.gbk");
+		Files.write(gbkFile.toPath(), ("LOCUS       acgt\n"
+				+ "ORIGIN\n"
+				+ "        1 acGTn acg\n"
+				+ "       10 t\n"
+				+ "//\n"
+				+ "ORIGIN\n"
+				+ "        1 aa\n"
+				+ "//\n").getBytes(StandardCharsets.ISO_8859_1));
+
+		TreeMap<Long, Integer> counts = Reference.count(2, false,
+				gbkFile.getPath());
+		TreeMap<Long, Integer> expected = new TreeMap<Long, Integer>();
+		expected.put(0L, 1); // aa
+		expected.put(1L, 2); // ac
+		expected.put(6L, 2); // cg
+		expected.put(11L, 2); // gt
+		assertEquals(expected, counts);
+		assertEquals(7, Reference.occurrences(counts));
+
+		// ac and gt are reverse complements, cg is its own
+		counts = Reference.count(2, true, gbkFile.getPath());
+		expected.remove(11L);
+		expected.put(0L, 1);
+		expected.put(1L, 4);
+		assertEquals(expected, counts);
+	}
+}
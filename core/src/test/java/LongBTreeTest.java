@@ -0,0 +1,122 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * Inserts into the LongBTree.
+ */
+class LongBTreeTest {
+
+	@TempDir
+	File dir;
+
+	private String treeFile() {
+		return new File(dir, "tree").getPath();
+	}
+
+	@Test
+	void existingKeyIsIncrementedInOneDescent() throws IOException {
+		String gbkFile = Reference.fixture("test2.gbk");
+		LongBTree btree = new LongBTree(3, 6, BTree.BLOCK_SIZE, 9,
+				Cache.Policy.LRU, treeFile());
+		GeneBankParser.parse(gbkFile, 6, btree);
+		int height = btree.getHeight();
+		assertTrue(btree.getNodeVisits() <= btree.getInsertCount() * height);
+
+		// Every node below the root is read through the cache
+		TreeMap<Long, Integer> expected = Reference.count(6, false, gbkFile);
+		Cache<?> cache = btree.getCache();
+		for (long key : expected.keySet()) {
+			long visits = btree.getNodeVisits();
+			int reads = cache.getReferenceCount();
+			btree.insert(key);
+			long descent = btree.getNodeVisits() - visits;
+			assertTrue(descent >= 1 && descent <= height, descent + " visits");
+			assertTrue(cache.getReferenceCount() - reads <= height - 1,
+					cache.getReferenceCount() - reads + " reads");
+		}
+		assertEquals(height, btree.getHeight());
+
+		for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+			assertEquals(entry.getValue() + 1, btree.frequency(entry.getKey()));
+		}
+		btree.close();
+	}
+
+	@ParameterizedTest
+	@CsvSource({ "1, 2", "4, 2", "16, 2", "16, 0" })
+	void concurrentInsertsMatchReference(int threads, int degree)
+			throws Exception {
+		// Sequences are dealt round-robin, so threads split the same nodes
+		String gbkFile = Reference.fixture("test3.gbk");
+		TreeMap<Long, Integer> expected = Reference.count(9, false, gbkFile);
+		List<Long> sequences = new ArrayList<Long>();
+		GeneBankParser.parse(gbkFile, 9, sequences::add);
+
+		LongBTree btree = LongBTree.concurrent(degree, 9, BTree.BLOCK_SIZE,
+				treeFile());
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Object>> futures = new ArrayList<Future<Object>>();
+		for (int t = 0; t < threads; t++) {
+			final int first = t;
+			futures.add(executor.submit(new Callable<Object>() {
+				public Object call() throws IOException {
+					long[] inserted = new long[sequences.size() / threads + 1];
+					int n = 0;
+					for (int i = first; i < sequences.size(); i += threads) {
+						long sequence = sequences.get(i);
+						btree.insert(sequence);
+						assertTrue(btree.frequency(sequence) > 0);
+						inserted[n++] = sequence;
+					}
+					// Searched while other threads may still insert
+					for (int frequency : btree.searchBatch(Arrays.copyOf(inserted, n))) {
+						assertTrue(frequency > 0);
+					}
+					return null;
+				}
+			}));
+		}
+		for (Future<Object> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+		assertEquals(sequences.size(), btree.getInsertCount());
+		btree.close();
+
+		LongBTree written = new LongBTree(treeFile());
+		for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+			assertEquals(entry.getValue().intValue(),
+					written.frequency(entry.getKey()));
+		}
+		assertEquals(Reference.occurrences(expected),
+				Reference.occurrences(scan(written)));
+		written.close();
+	}
+
+	private static TreeMap<Long, Integer> scan(LongBTree btree)
+			throws IOException {
+		TreeMap<Long, Integer> counts = new TreeMap<Long, Integer>();
+		SequenceIterator keys = btree.rangeScan(0, Long.MAX_VALUE);
+		while (keys.next()) {
+			counts.put(keys.sequence(), keys.frequency());
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,71 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Counting in the open-addressing LongIntHashMap, compared with a TreeMap.
+ */
+class LongIntHashMapTest {
+
+	@Test
+	void countsMatchTreeMapThroughResizes() {
+		// Keys 0 (the empty slot) and 4^31 - 1 are encoded sequences like any other
+		Random random = new Random(42);
+		LongIntHashMap map = new LongIntHashMap(1);
+		TreeMap<Long, Integer> expected = new TreeMap<Long, Integer>();
+		long[] extremes = { 0, (1L << 62) - 1 };
+		for (int i = 0; i < 100000; i++) {
+			long key = i < 10 ? extremes[i % 2] : random.nextInt(20000)
+					* 0x9e3779b97f4a7c15L >>> 2;
+			map.add(key);
+			expected.merge(key, 1, Integer::sum);
+		}
+		map.add(5, 1000);
+		expected.merge(5L, 1000, Integer::sum);
+
+		assertEquals(expected.size(), map.size());
+		for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+			assertEquals(entry.getValue().intValue(), map.get(entry.getKey()));
+		}
+		assertEquals(0, map.get(7));
+		assertSorted(expected, map);
+	}
+
+	@Test
+	void addAllMergesCounts() {
+		LongIntHashMap a = new LongIntHashMap();
+		LongIntHashMap b = new LongIntHashMap();
+		TreeMap<Long, Integer> expected = new TreeMap<Long, Integer>();
+		for (long key = 0; key < 1000; key++) {
+			a.add(key, 1);
+			b.add(key * 3, 2);
+			expected.merge(key, 1, Integer::sum);
+			expected.merge(key * 3, 2, Integer::sum);
+		}
+		a.addAll(b);
+		assertSorted(expected, a);
+
+		a.clear();
+		assertEquals(0, a.size());
+		assertEquals(0, a.get(0));
+	}
+
+	private static void assertSorted(TreeMap<Long, Integer> expected,
+			LongIntHashMap map) {
+		long[] keys = new long[expected.size()];
+		int[] counts = new int[expected.size()];
+		int i = 0;
+		for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+			keys[i] = entry.getKey();
+			counts[i++] = entry.getValue();
+		}
+		int[] mapCounts = new int[map.size()];
+		assertArrayEquals(keys, map.sortedKeys(mapCounts));
+		assertArrayEquals(counts, mapCounts);
+	}
+}
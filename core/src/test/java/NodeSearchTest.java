@@ -0,0 +1,56 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The binary node searches of LongBTree and MappedBTree find the same key as
+ * a linear scan from the last key down.
+ */
+class NodeSearchTest {
+
+	/**
+	 * Offset, number of keys and leaf flag, followed by keys and frequencies.
+	 */
+	private final static int KEYS_POS = 13;
+	private final static int KEY_SIZE = 12;
+
+	@Test
+	void binarySearchMatchesLinearScan() {
+		Random random = new Random(42);
+		for (int n = 0; n <= 64; n++) {
+			long[] keys = new long[n];
+			for (int i = 0; i < n; i++) {
+				keys[i] = random.nextInt(4 * n + 1);
+			}
+			keys = Arrays.stream(keys).distinct().sorted().toArray();
+
+			ByteBuffer node = ByteBuffer.allocateDirect(KEYS_POS + keys.length
+					* KEY_SIZE);
+			node.putInt(8, keys.length);
+			for (int i = 0; i < keys.length; i++) {
+				node.putLong(KEYS_POS + i * KEY_SIZE, keys[i]);
+			}
+
+			// Every key, the keys between them and the keys beyond both ends
+			for (long key = -1; key <= 4 * n + 2; key++) {
+				int expected = linearFloorIndex(keys, key);
+				assertEquals(expected, LongBTree.floorIndex(keys, keys.length, key),
+						"n " + n + ", key " + key);
+				assertEquals(expected, MappedBTree.floorIndex(node, 0, key),
+						"n " + n + ", key " + key);
+			}
+		}
+	}
+
+	private static int linearFloorIndex(long[] keys, long key) {
+		int i = keys.length - 1;
+		while (i >= 0 && key < keys[i]) {
+			i--;
+		}
+		return i;
+	}
+}
@@ -0,0 +1,97 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Encoding and decoding of the bit-packed values of the compressed layout.
+ */
+class PackedPageTest {
+
+	@TempDir
+	File dir;
+
+	@Test
+	void packedValuesRoundTripForEveryWidth() {
+		Random random = new Random(42);
+		for (int width = 0; width <= 63; width++) {
+			// 13 values at an odd start, so values cross byte and long boundaries
+			long[] values = new long[13];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = width == 0 ? 0 : random.nextLong() >>> (64 - width);
+			}
+			values[0] = width == 0 ? 0 : (1L << width) - 1;
+
+			ByteBuffer buffer = ByteBuffer.allocate(3 + 8 * values.length
+					+ PackedPage.SLACK);
+			buffer.position(3);
+			PackedPage.put(buffer, values, 0, values.length, 0, 0, width);
+			assertEquals(3 + PackedPage.packedSize(values.length, width),
+					buffer.position());
+
+			for (int i = 0; i < values.length; i++) {
+				assertEquals(values[i], PackedPage.get(buffer, 3, i, width),
+						"width " + width + ", index " + i);
+			}
+		}
+	}
+
+	@Test
+	void baseAndShiftAreRemovedBeforePacking() {
+		long base = 1L << 40;
+		long[] values = { base, base + (5L << 7), base + (9L << 7), base + (12L << 7) };
+		int width = PackedPage.width((values[3] - base) >>> 7);
+
+		ByteBuffer buffer = ByteBuffer.allocate(16 + PackedPage.SLACK);
+		PackedPage.put(buffer, values, 0, values.length, base, 7, width);
+		for (int i = 0; i < values.length; i++) {
+			assertEquals(values[i], base + (PackedPage.get(buffer, 0, i, width) << 7));
+		}
+	}
+
+	@Test
+	void widthCountsSignificantBits() {
+		assertEquals(0, PackedPage.width(0));
+		assertEquals(1, PackedPage.width(1));
+		assertEquals(8, PackedPage.width(255));
+		assertEquals(9, PackedPage.width(256));
+		assertEquals(63, PackedPage.width(Long.MAX_VALUE));
+	}
+
+	@Test
+	void separatorIsBetweenItsKeys() {
+		Random random = new Random(7);
+		for (int i = 0; i < 10000; i++) {
+			long left = random.nextLong() >>> 2;
+			long right = left + 1 + (random.nextLong() >>> (2 + random.nextInt(62)));
+			long separator = PackedPage.separator(left, right);
+			assertTrue(left < separator && separator <= right, left + " " + right);
+		}
+	}
+
+	@Test
+	void leafKeysAndFrequenciesAreReadByIndex() throws Exception {
+		// A leaf written by the bulk loader, with frequencies of several widths
+		File file = new File(dir, "packed.btree");
+		long[] keys = { 3, 17, 18, 1000, 1L << 33, (1L << 33) + 1 };
+		int[] frequencies = { 1, 1, 300, 2, 1 << 20, 1 };
+		BTreeBulkLoader loader = new BTreeBulkLoader(0, 20, BTree.BLOCK_SIZE,
+				file.getPath(), keys.length, BTree.LAYOUT_COMPRESSED);
+		for (int i = 0; i < keys.length; i++) {
+			loader.append(keys[i], frequencies[i]);
+		}
+		loader.finish();
+
+		MappedBTree tree = new MappedBTree(file.getPath());
+		for (int i = 0; i < keys.length; i++) {
+			assertEquals(frequencies[i], tree.frequency(keys[i]));
+		}
+		assertEquals(0, tree.frequency(4));
+		tree.close();
+	}
+}
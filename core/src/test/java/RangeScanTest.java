@@ -0,0 +1,172 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * Range scans, prefix scans and top() of mapped and inserted trees. With a
+ * small degree a scan crosses many nodes, which the B+ layouts reach through
+ * the links between their leaves.
+ */
+class RangeScanTest {
+
+	private final static int SEQUENCE_LENGTH = 8;
+
+	@TempDir
+	File dir;
+
+	@ParameterizedTest
+	@CsvSource({ "0, 2", "0, 5", "0, 0", "1, 2", "1, 5", "1, 0",
+			"2, 0" })
+	void bulkLoadedScansMatchReference(int layout, int degree)
+			throws IOException {
+		TreeMap<Long, Integer> expected = Reference.count(SEQUENCE_LENGTH, false,
+				Reference.fixture("test3.gbk"));
+		String treeFile = new File(dir, "tree").getPath();
+		BTreeBulkLoader loader = new BTreeBulkLoader(degree, SEQUENCE_LENGTH,
+				BTree.BLOCK_SIZE, treeFile, expected.size(), layout);
+		for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+			loader.append(entry.getKey(), entry.getValue());
+		}
+		loader.finish();
+
+		MappedBTree index = new MappedBTree(treeFile);
+		assertScansMatch(expected, index);
+		index.close();
+	}
+
+	@Test
+	void insertedScansMatchReference() throws IOException {
+		String gbkFile = Reference.fixture("test3.gbk");
+		String treeFile = new File(dir, "tree").getPath();
+		LongBTree btree = new LongBTree(2, SEQUENCE_LENGTH, BTree.BLOCK_SIZE, 0,
+				Cache.Policy.LRU, treeFile);
+		GeneBankParser.parse(gbkFile, SEQUENCE_LENGTH, btree);
+
+		TreeMap<Long, Integer> expected = Reference.count(SEQUENCE_LENGTH, false,
+				gbkFile);
+		Random random = new Random(42);
+		for (long[] range : ranges(expected, random)) {
+			EngineTest.assertScan(subMap(expected, range),
+					btree.rangeScan(range[0], range[1]));
+		}
+		for (String prefix : prefixes(random)) {
+			long[] range = prefixRange(prefix);
+			EngineTest.assertScan(subMap(expected, range),
+					btree.prefixScan(prefix));
+		}
+		assertTopMatches(expected, btree.top(25));
+		btree.close();
+	}
+
+	private static void assertScansMatch(TreeMap<Long, Integer> expected,
+			MappedBTree index) throws IOException {
+		Random random = new Random(42);
+		for (long[] range : ranges(expected, random)) {
+			EngineTest.assertScan(subMap(expected, range),
+					index.rangeScan(range[0], range[1]));
+		}
+		for (String prefix : prefixes(random)) {
+			long[] range = prefixRange(prefix);
+			EngineTest.assertScan(subMap(expected, range),
+					index.prefixScan(prefix));
+		}
+		assertTopMatches(expected, index.top(25));
+	}
+
+	/**
+	 * Returns random ranges: between stored keys, between any keys, single
+	 * keys, empty ranges and ranges beyond the stored keys.
+	 */
+	private static List<long[]> ranges(TreeMap<Long, Integer> expected,
+			Random random) {
+		List<Long> keys = new ArrayList<Long>(expected.keySet());
+		long max = (1L << (2 * SEQUENCE_LENGTH)) - 1;
+		List<long[]> ranges = new ArrayList<long[]>();
+		ranges.add(new long[] { 0, max });
+		ranges.add(new long[] { keys.get(0), keys.get(0) });
+		ranges.add(new long[] { keys.get(keys.size() - 1), Long.MAX_VALUE });
+		ranges.add(new long[] { keys.get(0) + 1, keys.get(0) });
+		for (int i = 0; i < 200; i++) {
+			long lo;
+			long hi;
+			if (i % 2 == 0) {
+				lo = keys.get(random.nextInt(keys.size()));
+				hi = keys.get(random.nextInt(keys.size()));
+			} else {
+				lo = (long) (random.nextDouble() * max);
+				hi = (long) (random.nextDouble() * max);
+			}
+			ranges.add(new long[] { Math.min(lo, hi), Math.max(lo, hi) });
+		}
+		return ranges;
+	}
+
+	private static Map<Long, Integer> subMap(TreeMap<Long, Integer> expected,
+			long[] range) {
+		return range[0] > range[1] ? new TreeMap<Long, Integer>()
+				: expected.subMap(range[0], true, range[1], true);
+	}
+
+	private static List<String> prefixes(Random random) {
+		List<String> prefixes = new ArrayList<String>();
+		prefixes.add("");
+		for (int i = 0; i < 50; i++) {
+			StringBuilder prefix = new StringBuilder();
+			int length = 1 + random.nextInt(SEQUENCE_LENGTH);
+			for (int j = 0; j < length; j++) {
+				prefix.append("acgt".charAt(random.nextInt(4)));
+			}
+			prefixes.add(prefix.toString());
+		}
+		return prefixes;
+	}
+
+	private static long[] prefixRange(String prefix) {
+		long lo = 0;
+		for (char c : prefix.toCharArray()) {
+			lo = lo * 4 + "acgt".indexOf(c);
+		}
+		int shift = 2 * (SEQUENCE_LENGTH - prefix.length());
+		lo <<= shift;
+		return new long[] { lo, lo + (1L << shift) - 1 };
+	}
+
+	/**
+	 * The most frequent sequences first, the smaller of equally frequent
+	 * sequences first.
+	 */
+	private static void assertTopMatches(TreeMap<Long, Integer> expected,
+			TopSequences top) {
+		List<Map.Entry<Long, Integer>> entries = new ArrayList<Map.Entry<Long, Integer>>(
+				expected.entrySet());
+		Collections.sort(entries, (a, b) -> a.getValue().equals(b.getValue())
+				? Long.compare(a.getKey(), b.getKey())
+				: Integer.compare(b.getValue(), a.getValue()));
+
+		int n = Math.min(25, entries.size());
+		long[] sequences = new long[n];
+		int[] frequencies = new int[n];
+		for (int i = 0; i < n; i++) {
+			sequences[i] = entries.get(i).getKey();
+			frequencies[i] = entries.get(i).getValue();
+		}
+
+		assertEquals(n, top.size());
+		int[] topFrequencies = new int[n];
+		assertArrayEquals(sequences, top.sortedSequences(topFrequencies));
+		assertArrayEquals(frequencies, topFrequencies);
+	}
+}
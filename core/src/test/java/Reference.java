@@ -0,0 +1,110 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts the sequences of a GBK file the slow and obvious way, one string at
+ * a time, as the reference every engine is compared against. Shares no code
+ * with GeneBankParser or Sequence.
+ */
+class Reference {
+
+	/**
+	 * Returns the path of a GBK fixture, in the directory named by the system
+	 * property "fixtures" (set by the build) or ../data.
+	 * @param name - name of the GBK file
+	 * @return path of the file
+	 */
+	static String fixture(String name) {
+		return new File(System.getProperty("fixtures", "../data"), name)
+				.getPath();
+	}
+
+	/**
+	 * Counts every sequence of the ORIGIN sections of the GBK files.
+	 * @param sequenceLength - length of the sequences
+	 * @param canonical - true to count the smaller of every sequence and its
+	 *          reverse complement
+	 * @param gbkFiles - GBK files
+	 * @return frequency of every encoded sequence, in increasing order
+	 * @throws IOException
+	 */
+	static TreeMap<Long, Integer> count(int sequenceLength, boolean canonical,
+			String... gbkFiles) throws IOException {
+
+		TreeMap<Long, Integer> counts = new TreeMap<Long, Integer>();
+		for (String gbkFile : gbkFiles) {
+			StringBuilder run = new StringBuilder();
+			boolean origin = false;
+			for (String line : Files.readAllLines(Paths.get(gbkFile),
+					StandardCharsets.ISO_8859_1)) {
+				if (!origin) {
+					origin = line.startsWith("ORIGIN");
+					run.setLength(0);
+					continue;
+				}
+				if (line.startsWith("//")) {
+					count(run.toString(), sequenceLength, canonical, counts);
+					origin = false;
+					continue;
+				}
+				for (char c : line.toLowerCase().toCharArray()) {
+					if ("acgt".indexOf(c) >= 0) {
+						run.append(c);
+					} else if (!Character.isDigit(c) && !Character.isWhitespace(c)) {
+						// No sequence spans an 'n'
+						count(run.toString(), sequenceLength, canonical, counts);
+						run.setLength(0);
+					}
+				}
+			}
+			if (origin) {
+				count(run.toString(), sequenceLength, canonical, counts);
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Returns the number of occurrences of all sequences.
+	 */
+	static long occurrences(Map<Long, Integer> counts) {
+		long total = 0;
+		for (int frequency : counts.values()) {
+			total += frequency;
+		}
+		return total;
+	}
+
+	private static void count(String bases, int sequenceLength,
+			boolean canonical, Map<Long, Integer> counts) {
+		for (int i = 0; i + sequenceLength <= bases.length(); i++) {
+			String sequence = bases.substring(i, i + sequenceLength);
+			long key = encode(sequence);
+			if (canonical) {
+				key = Math.min(key, encode(reverseComplement(sequence)));
+			}
+			counts.merge(key, 1, Integer::sum);
+		}
+	}
+
+	private static long encode(String sequence) {
+		long value = 0;
+		for (char c : sequence.toCharArray()) {
+			value = value * 4 + "acgt".indexOf(c);
+		}
+		return value;
+	}
+
+	private static String reverseComplement(String sequence) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = sequence.length() - 1; i >= 0; i--) {
+			sb.append("tgca".charAt("acgt".indexOf(sequence.charAt(i))));
+		}
+		return sb.toString();
+	}
+}
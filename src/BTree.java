@@ -1,30 +1,173 @@
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-
+import java.security.SecureRandom;
+
+/**
+ * Disk-resident BTree. Every node occupies one block (BLOCK_SIZE bytes by
+ * default) of the BTree file and is addressed by its byte offset. Only the
+ * root and an optional, bounded cache of nodes are kept in memory, all other
+ * nodes are read from disk as they are visited.
+ * 
+ * A BTree reads and writes nodes through one shared page buffer and cache, so
+ * it must only be used by one thread at a time. Concurrent readers should
+ * share a MappedBTree instead.
+ *
+ * Existing files are opened read-only. Only a tree created by the
+ * constructor that takes a degree can be inserted into.
+ *
+ * File layout is described in README.md.
+ */
 public class BTree<T extends Comparable<T> & Serializable> {
 
-	private final String BTreeFileExten = ".btree.data.k.t";
+	private final static String BTreeFileExten = ".btree.data.k.t";
 	private int degree;
+	private int sequenceLength;
 	private BTreeNode<T> root;
-	private final static int BLOCK_SIZE = 4096;
-	private StringBuffer sb = new StringBuffer();
-	private static ArrayList<byte[]> bytes = new ArrayList<byte[]>();
+	/**
+	 * Default block size, the size of a filesystem page.
+	 */
+	public final static int BLOCK_SIZE = 4096;
+	public final static int MAX_BLOCK_SIZE = 65536;
+	private int blockSize;
+
+	/**
+	 * Layouts of a BTree file, stored after the block size in the metadata.
+	 * In the B+Tree layout written by BTreeBulkLoader, internal nodes only
+	 * hold separators and leaves link to the next leaf. The compressed layout
+	 * is a B+Tree of bit-packed pages (see PackedPage).
+	 */
+	public final static int LAYOUT_BTREE = 0;
+	public final static int LAYOUT_BPLUS = 1;
+	public final static int LAYOUT_COMPRESSED = 2;
+
+	/**
+	 * Position of the build id in the metadata, after the canonical flag.
+	 */
+	public final static int BUILD_ID_POS = 36;
+	private final static SecureRandom BUILD_IDS = new SecureRandom();
+
+	/**
+	 * Size of the node header (offset, number of keys, isLeaf).
+	 */
+	private final static int NODE_HEADER_SIZE = 8 + 4 + 1;
+	/**
+	 * Size of a key (sequence, frequency).
+	 */
+	private final static int KEY_SIZE = 8 + 4;
+	/**
+	 * Size of a child key (byte offset).
+	 */
+	private final static int CHILD_SIZE = 8;
+
+	private RandomAccessFile file;
+	/**
+	 * False for an existing file, which is opened read-only.
+	 */
+	private boolean writable;
+	/**
+	 * True if nodes or metadata changed since the last write().
+	 */
+	private boolean modified;
+	private int nodeCount;
+	private byte[] page;
+	private ByteBuffer pageBuffer;
+	/**
+	 * Nodes by byte offset, null if caching is disabled.
+	 */
+	private Cache<BTreeNode<T>> cache;
+	/**
+	 * Nodes up to this depth (the root has depth 0) are pinned in the cache,
+	 * so that streaming through the leaves does not evict them.
+	 */
+	private final static int PINNED_DEPTH = 2;
+
+	private long buildId;
+	private long insertCount;
+	private long nodeVisits;
+
+	/**
+	 * Creates a new, empty BTree stored in the specified file. Any existing
+	 * file is overwritten.
+	 * @param degree - degree of the tree
+	 * @param sequenceLength - length of the stored sequences
+	 * @param bTreeFile - file to store the tree in
+	 * @throws IOException
+	 */
+	public BTree(int degree, int sequenceLength, String bTreeFile)
+			throws IOException {
+		this(degree, sequenceLength, BLOCK_SIZE, bTreeFile);
+	}
+
+	/**
+	 * Creates a new, empty BTree stored in the specified file, using blocks of
+	 * the specified size. Any existing file is overwritten.
+	 * @param degree - degree of the tree, 0 for the optimal degree
+	 * @param sequenceLength - length of the stored sequences
+	 * @param blockSize - size of a block, a power of 2 between BLOCK_SIZE and
+	 *          MAX_BLOCK_SIZE
+	 * @param bTreeFile - file to store the tree in
+	 * @throws IOException
+	 */
+	public BTree(int degree, int sequenceLength, int blockSize,
+			String bTreeFile) throws IOException {
+		this(degree, sequenceLength, blockSize, 0, bTreeFile);
+	}
 
-	public BTree(int degree) {
+	/**
+	 * Creates a new, empty BTree stored in the specified file, using blocks of
+	 * the specified size and keeping up to cacheSize nodes in an LRU cache.
+	 * Any existing file is overwritten.
+	 * @param degree - degree of the tree, 0 for the optimal degree
+	 * @param sequenceLength - length of the stored sequences
+	 * @param blockSize - size of a block, a power of 2 between BLOCK_SIZE and
+	 *          MAX_BLOCK_SIZE
+	 * @param cacheSize - number of cached nodes, 0 to disable caching
+	 * @param bTreeFile - file to store the tree in
+	 * @throws IOException
+	 */
+	public BTree(int degree, int sequenceLength, int blockSize, int cacheSize,
+			String bTreeFile) throws IOException {
+		this(degree, sequenceLength, blockSize, cacheSize, Cache.Policy.LRU,
+				bTreeFile);
+	}
+
+	/**
+	 * Creates a new, empty BTree stored in the specified file, using blocks of
+	 * the specified size and keeping up to cacheSize nodes in a cache with the
+	 * specified eviction policy. Any existing file is overwritten.
+	 * @param degree - degree of the tree, 0 for the optimal degree
+	 * @param sequenceLength - length of the stored sequences
+	 * @param blockSize - size of a block, a power of 2 between BLOCK_SIZE and
+	 *          MAX_BLOCK_SIZE
+	 * @param cacheSize - number of cached nodes, 0 to disable caching
+	 * @param policy - eviction policy of the cache
+	 * @param bTreeFile - file to store the tree in
+	 * @throws IOException
+	 */
+	public BTree(int degree, int sequenceLength, int blockSize, int cacheSize,
+			Cache.Policy policy, String bTreeFile) throws IOException {
+
+		if (!isValidBlockSize(blockSize)) {
+
+			System.err.println("Invalid block size. Must be a power of 2 between "
+					+ BLOCK_SIZE + " and " + MAX_BLOCK_SIZE + ".");
+			System.exit(3);
+		}
+
+		if (degree == 0) {
+			degree = optimalDegree(blockSize);
+		}
 
 		this.degree = degree;
+		this.sequenceLength = sequenceLength;
+		this.blockSize = blockSize;
 
 		if (degree < 1) {
 
@@ -32,53 +175,298 @@ public class BTree<T extends Comparable<T> & Serializable> {
 			System.exit(3);
 		}
 
+		if (nodeSize(degree) > blockSize) {
+
+			System.err.println("Invalid degree. A node of degree " + degree
+					+ " does not fit in a " + blockSize + " byte block.");
+			System.exit(3);
+		}
+
+		this.page = new byte[blockSize];
+		this.pageBuffer = ByteBuffer.wrap(page);
+
+		File f = new File(bTreeFile);
+		if (f.exists()) {
+			f.delete();
+		}
+		this.file = new RandomAccessFile(f, "rw");
+		this.writable = true;
+		this.modified = true;
+		this.buildId = newBuildId();
+		this.nodeCount = 0;
+		this.cache = createCache(cacheSize, policy);
+
 		this.root = new BTreeNode<T>();
+		this.root.save();
+		writeMetadata();
 	}
 
-	public BTree(String bTreeFile) {
+	/**
+	 * Opens an existing BTree file for reading.
+	 * @param bTreeFile - file the tree is stored in
+	 * @throws IOException
+	 */
+	public BTree(String bTreeFile) throws IOException {
+		this(bTreeFile, 0);
+	}
 
-		try {
+	/**
+	 * Opens an existing BTree file for reading, keeping up to cacheSize nodes
+	 * in an LRU cache.
+	 * @param bTreeFile - file the tree is stored in
+	 * @param cacheSize - number of cached nodes, 0 to disable caching
+	 * @throws IOException
+	 */
+	public BTree(String bTreeFile, int cacheSize) throws IOException {
+		this(bTreeFile, cacheSize, Cache.Policy.LRU);
+	}
 
-			FileInputStream fis = new FileInputStream(bTreeFile);
-			DataInputStream dis = new DataInputStream(fis);
-			BufferedReader br = new BufferedReader(new InputStreamReader(dis));
+	/**
+	 * Opens an existing BTree file for reading, keeping up to cacheSize nodes
+	 * in a cache with the specified eviction policy.
+	 * @param bTreeFile - file the tree is stored in
+	 * @param cacheSize - number of cached nodes, 0 to disable caching
+	 * @param policy - eviction policy of the cache
+	 * @throws IOException
+	 */
+	public BTree(String bTreeFile, int cacheSize, Cache.Policy policy)
+			throws IOException {
+
+		this.file = new RandomAccessFile(bTreeFile, "r");
+
+		file.seek(0);
+		this.degree = (int) file.readLong();
+		long rootOffset = file.readLong();
+		this.nodeCount = file.readInt();
+		this.sequenceLength = file.readInt();
+		this.blockSize = file.readInt();
+		if (file.readInt() != LAYOUT_BTREE) {
+			file.close();
+			throw new IOException("Only the B-tree layout is supported, open "
+					+ bTreeFile + " with LongBTree or MappedBTree");
+		}
+
+		this.page = new byte[blockSize];
+		this.pageBuffer = ByteBuffer.wrap(page);
+		this.cache = createCache(cacheSize, policy);
+		this.root = new BTreeNode<T>(rootOffset);
+	}
 
-			// @TODO Do something
-			/*
-			
-			*/
+	/**
+	 * Creates a node cache that writes evicted dirty nodes to disk.
+	 * @param cacheSize - number of cached nodes
+	 * @param policy - eviction policy
+	 * @return cache, null if cacheSize is 0
+	 */
+	private Cache<BTreeNode<T>> createCache(int cacheSize, Cache.Policy policy) {
 
-			dis.close();
-		} catch (FileNotFoundException e) {
+		if (cacheSize < 1) {
+			return null;
+		}
 
-		} catch (IOException e) {
+		return new Cache<BTreeNode<T>>(cacheSize, policy,
+				new Cache.WriteBack<BTreeNode<T>>() {
+					public void write(long key, BTreeNode<T> node) throws IOException {
+						node.write();
+					}
+				});
+	}
 
+	/**
+	 * Returns the node cache, which records the number of references and hits.
+	 * @return cache, null if caching is disabled
+	 */
+	public Cache<?> getCache() {
+		return cache;
+	}
+
+	/**
+	 * Returns the node at the specified byte offset, from the cache if
+	 * possible. Nodes up to PINNED_DEPTH are pinned in the cache.
+	 * @param offset - byte offset of the node
+	 * @param depth - depth of the node
+	 * @return node
+	 * @throws IOException
+	 */
+	private BTreeNode<T> readNode(long offset, int depth) throws IOException {
+
+		if (cache == null) {
+			return new BTreeNode<T>(offset);
+		}
+
+		BTreeNode<T> node = cache.getObject(offset);
+		if (node == null) {
+			node = new BTreeNode<T>(offset);
+			cache.addObject(offset, node);
+		}
+		if (depth <= PINNED_DEPTH) {
+			cache.pin(offset);
 		}
+		return node;
 	}
 
-	public void insert(T key) {
+	/**
+	 * Returns the name of the BTree file for a GBK file.
+	 * @param gbkFile - GBK file the tree is created from
+	 * @param sequenceLength - length of the stored sequences
+	 * @param degree - degree of the tree
+	 * @return BTree file name
+	 */
+	public static String getFileName(String gbkFile, int sequenceLength,
+			int degree) {
+		return gbkFile
+				+ BTreeFileExten.replace(".k.", "." + sequenceLength + ".").replace(
+						".t", "." + degree);
+	}
 
-		TreeObject<T> t_obj = findKeyObject(key);
+	/**
+	 * Returns true if blockSize is a power of 2 between BLOCK_SIZE and
+	 * MAX_BLOCK_SIZE (inclusive).
+	 * @param blockSize - size of a block
+	 * @return true if valid, false otherwise
+	 */
+	public static boolean isValidBlockSize(int blockSize) {
+		return blockSize >= BLOCK_SIZE && blockSize <= MAX_BLOCK_SIZE
+				&& Integer.bitCount(blockSize) == 1;
+	}
 
-		if (t_obj != null) {
-			t_obj.incrementFrequency();
-		} else {
-			BTreeNode<T> r = root;
-			if (r.isFull()) {
-				BTreeNode<T> s = new BTreeNode<T>();
-				this.root = s;
-				s.isLeaf(false);
-
-				s.setChild(0, r);
-				s.splitChild(0);
-				s.insert(key);
-			} else {
-				r.insert(key);
+	/**
+	 * Returns the largest degree whose nodes fit in a block of the specified
+	 * size.
+	 * @param blockSize - size of a block
+	 * @return optimal degree
+	 */
+	public static int optimalDegree(int blockSize) {
+		// nodeSize(t) = NODE_HEADER_SIZE - KEY_SIZE + t * 2 * (KEY_SIZE + CHILD_SIZE)
+		return (blockSize - NODE_HEADER_SIZE + KEY_SIZE)
+				/ (2 * (KEY_SIZE + CHILD_SIZE));
+	}
+
+	/**
+	 * Returns the size in bytes of a node of the specified degree.
+	 * @param degree - degree of the node
+	 * @return size in bytes
+	 */
+	public static int nodeSize(int degree) {
+		return NODE_HEADER_SIZE + (2 * degree - 1) * KEY_SIZE + 2 * degree
+				* CHILD_SIZE;
+	}
+
+	public int getDegree() {
+		return degree;
+	}
+
+	public int getSequenceLength() {
+		return sequenceLength;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Returns the number of nodes on a path from the root to a leaf, which is
+	 * the number of blocks read by an unsuccessful search.
+	 * @return height of the tree
+	 * @throws IOException
+	 */
+	public int getHeight() throws IOException {
+		int height = 1;
+		BTreeNode<T> node = root;
+		while (!node.isLeaf()) {
+			node = node.getChild(0);
+			height++;
+		}
+		return height;
+	}
+
+	/**
+	 * Writes degree, root offset, number of nodes, sequence length, block
+	 * size, layout, the canonical flag and the build id to the metadata block
+	 * at the start of the file.
+	 * @throws IOException
+	 */
+	private void writeMetadata() throws IOException {
+		file.seek(0);
+		file.writeLong(degree);
+		file.writeLong(root.key);
+		file.writeInt(nodeCount);
+		file.writeInt(sequenceLength);
+		file.writeInt(blockSize);
+		file.writeInt(LAYOUT_BTREE);
+		file.writeInt(0);
+		file.writeLong(buildId);
+	}
+
+	/**
+	 * Returns a random id for a tree that is being written. It is stored in
+	 * the metadata, so a Bloom filter can tell whether it was written for this
+	 * tree without reading more than the metadata.
+	 * @return build id
+	 */
+	static long newBuildId() {
+		return BUILD_IDS.nextLong();
+	}
+
+	/**
+	 * Allocates a block at the end of the file for a new node.
+	 * @return byte offset of the new node
+	 */
+	private long allocateNode() {
+		nodeCount++;
+		return (long) nodeCount * blockSize;
+	}
+
+	/**
+	 * Inserts the key, or increments its frequency if it is already in the
+	 * tree, in a single descent from the root.
+	 * @param key - key to insert
+	 * @throws IOException
+	 */
+	public void insert(T key) throws IOException {
+
+		if (!writable) {
+			throw new IllegalStateException("Cannot insert into a BTree opened for reading");
+		}
+		insertCount++;
+		modified = true;
+
+		BTreeNode<T> r = root;
+		if (r.isFull() && r.indexOf(key) < 0) {
+			BTreeNode<T> s = new BTreeNode<T>();
+			this.root = s;
+			s.isLeaf(false);
+			if (cache != null) {
+				// Every node moves one level down
+				cache.unpinAll();
 			}
+
+			s.setChild(0, r);
+			s.splitChild(0, r);
+			s.insert(key);
+			writeMetadata();
+		} else {
+			r.insert(key);
 		}
 	}
 
-	public T search(T key) {
+	/**
+	 * Returns the number of nodes visited by all calls to insert.
+	 * @return number of node visits
+	 */
+	public long getNodeVisits() {
+		return nodeVisits;
+	}
+
+	/**
+	 * Returns the number of calls to insert.
+	 * @return number of inserts
+	 */
+	public long getInsertCount() {
+		return insertCount;
+	}
+
+	public T search(T key) throws IOException {
 		
 		TreeObject<T> t_obj = findKeyObject(key);
 
@@ -89,11 +477,11 @@ public class BTree<T extends Comparable<T> & Serializable> {
 		return null;
 	}
 
-	private TreeObject<T> findKeyObject(T key) {
+	private TreeObject<T> findKeyObject(T key) throws IOException {
 		return root.search(key);
 	}
 
-	private String build() {
+	private String build() throws IOException {
 		StringBuilder sb = new StringBuilder();
 		sb.append(root.toString());
 		sb.append(" (head)\n");
@@ -102,7 +490,7 @@ public class BTree<T extends Comparable<T> & Serializable> {
 	}
 
 	private void build(StringBuilder sb, BTreeNode<T> node, int height,
-			String prevLevel, int child, boolean first) {
+			String prevLevel, int child, boolean first) throws IOException {
 		String thisLevel = "";
 		for (int i = 0; i < height; i++) {
 			sb.append("  ");
@@ -119,75 +507,50 @@ public class BTree<T extends Comparable<T> & Serializable> {
 		} else {
 			thisLevel = prevLevel;
 		}
-		int i = 1;
-		for (Object obj : node.children) {
-			if (obj != null) {
-				build(sb, (BTreeNode<T>) obj, height + 1, thisLevel, i, false);
-				i++;
+		if (!node.isLeaf()) {
+			for (int i = 0; i <= node.n(); i++) {
+				build(sb, node.getChild(i), height + 1, thisLevel, i + 1, false);
 			}
 		}
 	}
 
 	public String toString() {
-		return build();
+		try {
+			return build();
+		} catch (IOException e) {
+			return "BTree (unreadable: " + e.getMessage() + ")";
+		}
 	}
 	
+	/**
+	 * Writes the root, all cached nodes that changed and the metadata to disk.
+	 * Without a cache every other node is written as soon as it changes.
+	 * Does nothing if the tree did not change since the last write.
+	 * @throws IOException
+	 */
 	public void write() throws IOException {
-		
-		byte[] byteArray = new byte[BLOCK_SIZE];
-		
-		int j = 0;
-		for(int i = 0; i < root.keys.length; i++) {
-			
-			if (root.keys[i] != null) {
-				
-				for(byte b: ((TreeObject<T>) root.keys[i]).serialize()) {
-					
-					byteArray[j++] = b;
-				}
-			}
-		}
-		
-		bytes.add(byteArray);
-		
-		for(int i = 0; i < root.children.length; i++) {
-			
-			if (root.children[i] != null) {
-				
-				write((BTreeNode<T>) root.children[i]);
-			}
+
+		if (!modified) {
+			return;
 		}
-		
-		FileOutputStream fos = new FileOutputStream("treefile");
-		for (byte[] b: bytes) {
-			fos.write(b);
+		modified = false;
+		buildId = newBuildId();
+
+		root.save();
+		if (cache != null) {
+			cache.flush();
 		}
-		fos.close();
+		writeMetadata();
 	}
-	
-	private void write(BTreeNode<T> node) throws IOException {
-		
-		int j = 0;
-		byte[] byteArray = new byte[BLOCK_SIZE];
-		for(int i = 0; i < node.keys.length; i++) {
-			
-			if (node.keys[i] != null) {
-				for(byte b: ((TreeObject<T>) node.keys[i]).serialize()) {
-					
-					byteArray[j++] = b;
-				}
-			}
-		}
-		
-		bytes.add(byteArray);
 
-		for (int i = 0; i < node.children.length; i++) {
-			
-			if (node.children[i] != null) {
-				
-				write((BTreeNode<T>) node.children[i]);
-			}
-		}
+	/**
+	 * Writes the tree to disk, if it changed, and closes the BTree file.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+
+		write();
+		file.close();
 	}
 	
 	private byte[] serialize(Object obj) throws IOException {
@@ -219,13 +582,24 @@ public class BTree<T extends Comparable<T> & Serializable> {
 	@SuppressWarnings("hiding")
 	private class BTreeNode<T extends Comparable<T> & Serializable> {
 		private boolean leaf;
+		/**
+		 * Byte offset of this node in the BTree file.
+		 */
 		private long key;
+		/**
+		 * Distance from the root, set whenever the node is reached from its
+		 * parent.
+		 */
+		private int depth;
 		/**
 		 * Number of keys.
 		 */
 		private int n;
 		private Object[] keys;
-		private Object[] children;
+		/**
+		 * Byte offsets of the children.
+		 */
+		private long[] children;
 
 		public BTreeNode() {
 			this.leaf = true;
@@ -233,21 +607,27 @@ public class BTree<T extends Comparable<T> & Serializable> {
 			this.n = 0;
 
 			this.keys = new Object[degree * 2 - 1];
-			this.children = new Object[degree * 2];
+			this.children = new long[degree * 2];
 
-			this.key = 0;
+			this.key = allocateNode();
 		}
 
-		public BTreeNode(Long key) {
-			// TODO Read from disk
+		/**
+		 * Reads the node at the specified byte offset from disk.
+		 * @param key - byte offset of the node
+		 * @throws IOException
+		 */
+		public BTreeNode(long key) throws IOException {
+			this.keys = new Object[degree * 2 - 1];
+			this.children = new long[degree * 2];
+
+			this.key = key;
+			this.load();
 		}
 
-		public TreeObject<T> search(T key) {
-			
-			int i = this.n - 1;
-			while (i >= 0 && key.compareTo(this.getKey(i).getKey()) < 0) {
-				i--;
-			}
+		public TreeObject<T> search(T key) throws IOException {
+
+			int i = this.floorIndex(key);
 
 			// If the key was found
 			if (i >= 0 && key.compareTo(this.getKey(i).getKey()) == 0) {
@@ -260,25 +640,76 @@ public class BTree<T extends Comparable<T> & Serializable> {
 			return null;
 		}
 
+		/**
+		 * Binary search for the last key that is less than or equal to the key.
+		 * @param key - key to find
+		 * @return index of the last key <= key, -1 if every key is greater
+		 */
+		public int floorIndex(T key) {
+			int low = 0, high = this.n - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (key.compareTo(this.getKey(mid).getKey()) >= 0) {
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+			return high;
+		}
+
+		/**
+		 * Returns the index of the key in this node.
+		 * @param key - key to find
+		 * @return index of the key, -1 if it is not in this node
+		 */
+		public int indexOf(T key) {
+			int i = this.floorIndex(key);
+			if (i >= 0 && key.compareTo(this.getKey(i).getKey()) == 0) {
+				return i;
+			}
+			return -1;
+		}
+
 		public void setChild(int index, BTreeNode<T> node) {
-			children[index] = node;
+			children[index] = node.key;
 		}
 
-		@SuppressWarnings("unchecked")
-		public BTreeNode<T> getChild(int index) {
-			return (BTreeNode<T>) children[index];
+		public void setChild(int index, long offset) {
+			children[index] = offset;
 		}
 
+		/**
+		 * Reads the child at the specified index from disk.
+		 * @param index - index of the child
+		 * @return child node
+		 * @throws IOException
+		 */
 		@SuppressWarnings("unchecked")
-		public BTreeNode<T> removeChild(int index) {
-			BTreeNode<T> c = (BTreeNode<T>) children[index];
-			children[index] = null;
+		public BTreeNode<T> getChild(int index) throws IOException {
+			BTreeNode<T> child = (BTreeNode<T>) (BTreeNode<?>) readNode(
+					children[index], this.depth + 1);
+			child.depth = this.depth + 1;
+			return child;
+		}
+
+		public long removeChild(int index) {
+			long c = children[index];
+			children[index] = 0;
 			return c;
 		}
 
-		public void splitChild(int index) {
+		/**
+		 * Splits the full child y, which is stored at the specified index.
+		 * @param index - index of the child
+		 * @param y - the child
+		 * @return the newly created right sibling of y
+		 * @throws IOException
+		 */
+		public BTreeNode<T> splitChild(int index, BTreeNode<T> y)
+				throws IOException {
 			BTreeNode<T> z = new BTreeNode<T>();
-			BTreeNode<T> y = getChild(index);
+			z.depth = y.depth;
 
 			z.isLeaf(y.isLeaf());
 			z.n(degree - 1);
@@ -309,6 +740,8 @@ public class BTree<T extends Comparable<T> & Serializable> {
 			y.save();
 			z.save();
 			this.save();
+
+			return z;
 		}
 
 		public void setKey(int index, TreeObject<T> obj) {
@@ -328,18 +761,26 @@ public class BTree<T extends Comparable<T> & Serializable> {
 		}
 
 		/**
-		 * Inserted key assuming node is not full.
+		 * Inserted key assuming node is not full. If the key is found on the
+		 * way down its frequency is incremented instead. Full children are split
+		 * before descending into them, unless they contain the key.
 		 * 
 		 * @param key
 		 *          key to insert
+		 * @throws IOException
 		 */
-		public void insert(T key) {
-			int i = this.n - 1;
-			if (this.isLeaf()) {
-				while (i >= 0 && (this.getKey(i) != null)
-						&& key.compareTo(this.getKey(i).getKey()) < 0) {
-					this.setKey(i + 1, this.removeKey(i));
-					i--;
+		public void insert(T key) throws IOException {
+			nodeVisits++;
+
+			int i = this.floorIndex(key);
+
+			// If the key was found
+			if (i >= 0 && key.compareTo(this.getKey(i).getKey()) == 0) {
+				this.getKey(i).incrementFrequency();
+				this.save();
+			} else if (this.isLeaf()) {
+				for (int j = this.n - 1; j > i; j--) {
+					this.setKey(j + 1, this.removeKey(j));
 				}
 
 				this.setKey(i + 1, new TreeObject<T>(key));
@@ -347,35 +788,83 @@ public class BTree<T extends Comparable<T> & Serializable> {
 
 				this.save();
 			} else {
-				while (i >= 0 && key.compareTo(this.getKey(i).getKey()) < 0) {
-					i--;
-				}
 				i++;
-				this.getChild(i).load();
-				if (this.getChild(i).isFull()) {
-					this.splitChild(i);
+				BTreeNode<T> child = this.getChild(i);
+				if (child.isFull() && child.indexOf(key) < 0) {
+					BTreeNode<T> z = this.splitChild(i, child);
 					if (key.compareTo(this.getKey(i).getKey()) > 0) {
-						i++;
+						child = z;
 					}
 				}
-				this.getChild(i).insert(key);
+				child.insert(key);
 			}
 		}
 
 		/**
 		 * Loads node from disk.
+		 * @throws IOException
 		 */
-		private void load() {
-			// TODO Auto-generated method stub
+		private void load() throws IOException {
+			file.seek(this.key);
+			file.readFully(page);
+			pageBuffer.clear();
+
+			pageBuffer.getLong();
+			this.n = pageBuffer.getInt();
+			this.leaf = pageBuffer.get() == 1;
+
+			for (int i = 0; i < keys.length; i++) {
+				if (i < this.n) {
+					keys[i] = new TreeObject<T>(pageBuffer);
+				} else {
+					pageBuffer.position(pageBuffer.position() + KEY_SIZE);
+				}
+			}
 
+			for (int i = 0; i < children.length; i++) {
+				children[i] = pageBuffer.getLong();
+			}
+		}
+
+		/**
+		 * Saves node to disk, or marks it dirty in the cache so that it is
+		 * written when it is evicted.
+		 * @throws IOException
+		 */
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private void save() throws IOException {
+			if (cache != null) {
+				cache.addObject(this.key, (BTreeNode) this, true);
+			} else {
+				this.write();
+			}
 		}
 
 		/**
-		 * Saves node to disk.
+		 * Writes node to disk.
+		 * @throws IOException
 		 */
-		private void save() {
-			// TODO Auto-generated method stub
+		private void write() throws IOException {
+			pageBuffer.clear();
+
+			pageBuffer.putLong(this.key);
+			pageBuffer.putInt(this.n);
+			pageBuffer.put((byte) (this.leaf ? 1 : 0));
+
+			for (int i = 0; i < keys.length; i++) {
+				if (i < this.n) {
+					this.getKey(i).write(pageBuffer);
+				} else {
+					pageBuffer.putLong(0L).putInt(0);
+				}
+			}
+
+			for (int i = 0; i < children.length; i++) {
+				pageBuffer.putLong(children[i]);
+			}
 
+			file.seek(this.key);
+			file.write(page, 0, blockSize);
 		}
 
 		/**
@@ -435,6 +924,16 @@ public class BTree<T extends Comparable<T> & Serializable> {
 			this.frequency = 1;
 		}
 
+		/**
+		 * Reads sequence and frequency from the buffer.
+		 * @param buf - buffer to read from
+		 */
+		@SuppressWarnings("unchecked")
+		public TreeObject(ByteBuffer buf) {
+			this.key = (T) new Sequence(buf.getLong(), sequenceLength);
+			this.frequency = buf.getInt();
+		}
+
 		public T getKey() {
 			return this.key;
 		}
@@ -453,46 +952,13 @@ public class BTree<T extends Comparable<T> & Serializable> {
 			return str;
 		}
 		
-		public byte[] serialize() throws IOException {
-			
-			//ByteArrayOutputStream b = new ByteArrayOutputStream();
-			//ObjectOutputStream o = new ObjectOutputStream(b);
-			
-			//o.writeObject(this.key);
-			byte[] frequency = ByteBuffer.allocate(4).putInt(this.frequency).array();
-			byte[] key = ((Sequence) this.key).serialize();
-			
-			byte[] object = new byte[frequency.length + key.length];
-			for (int i = 0; i < frequency.length; i++) {
-				
-				object[i] = frequency[i];
-			}
-			
-			for (int i = 0; i < key.length; i++) {
-				
-				object[i + frequency.length] = key[i];
-			}
-			
-			return object;
-		}
-	}
-	
-	/**
-	 * Contains key (byte offset) of a child node.
-	 */
-	private class NodeKey{
-		private Long key;
-		
-		public NodeKey(Long key){
-			this.key = key;
-		}
-		
 		/**
-		 * Loads node from disk.
+		 * Writes sequence and frequency to the buffer.
+		 * @param buf - buffer to write to
 		 */
-		public BTreeNode<T> load() {
-			// TODO Auto-generated method stub
-			return new BTreeNode<T>(key);
+		public void write(ByteBuffer buf) {
+			buf.putLong(((Sequence) this.key).val());
+			buf.putInt(this.frequency);
 		}
 	}
 
@@ -0,0 +1,658 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Builds a BTree file bottom-up from sequences appended in increasing order.
+ * Because the number of keys is known in advance, the number of nodes on
+ * every level is planned up front and the keys are spread evenly over them,
+ * so every node except the root holds at least degree - 1 keys and nearly
+ * all nodes are full. Nodes are written as soon as they are complete, in a
+ * single sequential pass over the file, and only one node per level is kept
+ * in memory. Complete nodes are encoded into a fixed set of reusable direct
+ * buffers, and runs of adjacent nodes are written with one gather write, so
+ * memory use does not depend on the size of the tree.
+ *
+ * The file has the same format as a BTree file (see README.md) and can be
+ * opened by BTree(String) and MappedBTree.
+ *
+ * Optionally the tree is written in the B+Tree layout (BTree.LAYOUT_BPLUS):
+ * every key and frequency is stored in a leaf, internal nodes only hold
+ * copies of the first key of a subtree as separators, and every leaf links
+ * to the next leaf. All leaves are stored first, in key order, followed by
+ * the internal nodes, so a full scan reads the leaf blocks sequentially.
+ * Such files can be read by LongBTree and MappedBTree.
+ *
+ * In the compressed layout (BTree.LAYOUT_COMPRESSED) the tree is a B+Tree
+ * of bit-packed pages (see PackedPage), which are filled until the block is
+ * full instead of to a fixed degree, so the number of nodes is not planned.
+ * A block is allocated when a node is started, so a leaf knows the offset of
+ * the next leaf when it is written. Such files can be read by MappedBTree.
+ */
+public class BTreeBulkLoader {
+
+	private int degree;
+	private int sequenceLength;
+	private int blockSize;
+	private int layout;
+	private boolean canonical;
+
+	private long keyCount;
+	private long appended;
+	private long lastKey;
+
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private int nodeCount;
+
+	/**
+	 * Maximum number of nodes written by one gather write.
+	 */
+	private final static int WRITE_BATCH = 16;
+
+	/**
+	 * Encoded nodes waiting to be written to the blocks starting at
+	 * batchOffset.
+	 */
+	private ByteBuffer[] pages;
+	private int batched;
+	private long batchOffset;
+
+	/**
+	 * Number of leaves and internal nodes written in the B+Tree layout.
+	 */
+	private long leafCount;
+	private long internalCount;
+
+	/**
+	 * Node under construction on every level, levels[0] is the leaf level.
+	 */
+	private Level[] levels;
+
+	/**
+	 * Node under construction on every level in the compressed layout,
+	 * packedLevels.get(0) is the leaf level.
+	 */
+	private ArrayList<PackedLevel> packedLevels;
+
+	/**
+	 * Creates a loader for a BTree file holding keyCount distinct sequences.
+	 * Any existing file is overwritten.
+	 * @param degree - degree of the tree, 0 for the optimal degree
+	 * @param sequenceLength - length of the stored sequences
+	 * @param blockSize - size of a block
+	 * @param bTreeFile - file to store the tree in
+	 * @param keyCount - number of sequences that will be appended
+	 * @throws IOException
+	 */
+	public BTreeBulkLoader(int degree, int sequenceLength, int blockSize,
+			String bTreeFile, long keyCount) throws IOException {
+		this(degree, sequenceLength, blockSize, bTreeFile, keyCount,
+				BTree.LAYOUT_BTREE);
+	}
+
+	/**
+	 * Creates a loader for a BTree file holding keyCount distinct sequences in
+	 * the specified layout. Any existing file is overwritten.
+	 * @param degree - degree of the tree, 0 for the optimal degree
+	 * @param sequenceLength - length of the stored sequences
+	 * @param blockSize - size of a block
+	 * @param bTreeFile - file to store the tree in
+	 * @param keyCount - number of sequences that will be appended
+	 * @param layout - BTree.LAYOUT_BTREE, BTree.LAYOUT_BPLUS or
+	 *          BTree.LAYOUT_COMPRESSED, which ignores the degree
+	 * @throws IOException
+	 */
+	public BTreeBulkLoader(int degree, int sequenceLength, int blockSize,
+			String bTreeFile, long keyCount, int layout) throws IOException {
+
+		if (!BTree.isValidBlockSize(blockSize)) {
+			throw new IllegalArgumentException("Invalid block size: " + blockSize);
+		}
+		if (layout == BTree.LAYOUT_COMPRESSED) {
+			// Nodes are filled by size, the degree is not stored
+			degree = 1;
+		} else if (degree == 0) {
+			degree = BTree.optimalDegree(blockSize);
+		}
+		if (degree < 1 || BTree.nodeSize(degree) > blockSize) {
+			throw new IllegalArgumentException("Invalid degree: " + degree);
+		}
+		if (layout != BTree.LAYOUT_BTREE && layout != BTree.LAYOUT_BPLUS
+				&& layout != BTree.LAYOUT_COMPRESSED) {
+			throw new IllegalArgumentException("Invalid layout: " + layout);
+		}
+
+		this.degree = degree;
+		this.sequenceLength = sequenceLength;
+		this.blockSize = blockSize;
+		this.layout = layout;
+		this.keyCount = keyCount;
+		this.appended = 0;
+
+		File f = new File(bTreeFile);
+		if (f.exists()) {
+			f.delete();
+		}
+		this.file = new RandomAccessFile(f, "rw");
+		this.channel = file.getChannel();
+		this.nodeCount = 0;
+		this.pages = new ByteBuffer[WRITE_BATCH];
+		for (int i = 0; i < pages.length; i++) {
+			pages[i] = ByteBuffer.allocateDirect(blockSize);
+		}
+		this.batched = 0;
+
+		// Reserve the metadata block, it is written by finish()
+		channel.write(ByteBuffer.allocate(blockSize), 0);
+
+		if (layout == BTree.LAYOUT_COMPRESSED) {
+			this.packedLevels = new ArrayList<PackedLevel>();
+			packedLevels.add(new PackedLevel(true, allocate()));
+		} else {
+			plan();
+		}
+	}
+
+	/**
+	 * Plans the number of nodes on every level. A level of m nodes needs m - 1
+	 * separator keys in the level above.
+	 */
+	private void plan() {
+
+		int maxChildren = 2 * degree;
+
+		long leaves;
+		Level leaf;
+		if (layout == BTree.LAYOUT_BPLUS) {
+			// Leaves hold every key, separators are copies
+			leaves = Math.max(1, (keyCount + maxChildren - 2) / (maxChildren - 1));
+			leaf = new Level(true, leaves, keyCount);
+		} else {
+			// Leaves: every leaf except the last one is followed by a separator
+			leaves = keyCount <= maxChildren - 1 ? 1
+					: (keyCount + 1 + maxChildren - 1) / maxChildren;
+			leaf = new Level(true, leaves, keyCount - (leaves - 1));
+		}
+
+		int height = 1;
+		for (long nodes = leaves; nodes > 1; nodes = (nodes + maxChildren - 1)
+				/ maxChildren) {
+			height++;
+		}
+
+		levels = new Level[height];
+		levels[0] = leaf;
+
+		long children = leaves;
+		for (int l = 1; l < height; l++) {
+			long nodes = (children + maxChildren - 1) / maxChildren;
+			levels[l] = new Level(false, nodes, children);
+			children = nodes;
+		}
+	}
+
+	/**
+	 * Appends a sequence, which must be greater than every sequence appended
+	 * before.
+	 * @param key - encoded sequence
+	 * @param frequency - frequency of the sequence
+	 * @throws IOException
+	 */
+	public void append(long key, int frequency) throws IOException {
+
+		if (appended == keyCount) {
+			throw new IllegalStateException("More than " + keyCount
+					+ " sequences appended");
+		} else if (appended > 0 && key <= lastKey) {
+			throw new IllegalArgumentException("Sequences must be appended in increasing order");
+		}
+		appended++;
+		lastKey = key;
+
+		if (packedLevels != null) {
+			appendPacked(key, frequency);
+			return;
+		}
+
+		Level leaf = levels[0];
+		if (leaf.n == leaf.plannedSize()) {
+			// The leaf is complete, the key separates it from the next leaf
+			long offset = writeNode(leaf);
+			addChild(1, offset);
+			if (layout == BTree.LAYOUT_BPLUS) {
+				addKey(1, key, 0);
+				leaf.keys[0] = key;
+				leaf.frequencies[0] = frequency;
+				leaf.n = 1;
+			} else {
+				addKey(1, key, frequency);
+			}
+		} else {
+			leaf.keys[leaf.n] = key;
+			leaf.frequencies[leaf.n] = frequency;
+			leaf.n++;
+		}
+	}
+
+	/**
+	 * Appends every remaining sequence of the iterator, which must return
+	 * them in increasing order, like the scans of LongBTree and MappedBTree.
+	 * @param iterator - sequences and their frequencies
+	 * @throws IOException
+	 */
+	public void appendAll(SequenceIterator iterator) throws IOException {
+		while (iterator.next()) {
+			append(iterator.sequence(), iterator.frequency());
+		}
+	}
+
+	/**
+	 * Writes the remaining nodes and the metadata, then closes the file.
+	 * @throws IOException
+	 */
+	public void finish() throws IOException {
+
+		if (appended != keyCount) {
+			throw new IllegalStateException("Only " + appended + " of " + keyCount
+					+ " sequences appended");
+		}
+
+		long offset;
+		if (packedLevels != null) {
+			for (PackedLevel level : packedLevels) {
+				writePacked(level, 0);
+			}
+			offset = packedLevels.get(packedLevels.size() - 1).offset;
+		} else {
+			offset = writeNode(levels[0]);
+			for (int l = 1; l < levels.length; l++) {
+				addChild(l, offset);
+				offset = writeNode(levels[l]);
+			}
+		}
+		flush();
+
+		ByteBuffer page = ByteBuffer.allocate(blockSize);
+		page.putLong(packedLevels != null ? 0 : degree);
+		page.putLong(offset);
+		page.putInt(nodeCount);
+		page.putInt(sequenceLength);
+		page.putInt(blockSize);
+		page.putInt(layout);
+		page.putInt(canonical ? 1 : 0);
+		page.putLong(BTree.newBuildId());
+		page.flip();
+		channel.write(page, 0);
+
+		file.close();
+	}
+
+	public int getDegree() {
+		return degree;
+	}
+
+	/**
+	 * Marks the tree as holding canonical sequences, the smaller of every
+	 * sequence and its reverse complement (see Sequence.canonical()).
+	 * @param canonical - true for canonical sequences
+	 */
+	public void setCanonical(boolean canonical) {
+		this.canonical = canonical;
+	}
+
+	private void addChild(int l, long offset) {
+		Level level = levels[l];
+		level.children[level.childCount++] = offset;
+	}
+
+	private void addKey(int l, long key, int frequency) throws IOException {
+		Level level = levels[l];
+		if (level.childCount == level.plannedSize()) {
+			// The node is complete, the key separates it from the next node
+			long offset = writeNode(level);
+			addChild(l + 1, offset);
+			addKey(l + 1, key, frequency);
+		} else {
+			level.keys[level.n] = key;
+			level.frequencies[level.n] = frequency;
+			level.n++;
+		}
+	}
+
+	/**
+	 * Writes the node under construction on a level and starts the next node
+	 * of that level. In the B-tree layout nodes are written at the end of the
+	 * file. In the B+Tree layout the leaves are stored in order right after
+	 * the metadata, and the first child offset of a leaf links to the next
+	 * leaf (0 for the last leaf).
+	 * @param level - level of the node
+	 * @return byte offset of the node
+	 * @throws IOException
+	 */
+	private long writeNode(Level level) throws IOException {
+
+		nodeCount++;
+		long offset = (long) nodeCount * blockSize;
+		if (layout == BTree.LAYOUT_BPLUS) {
+			if (level.leaf) {
+				offset = ++leafCount * blockSize;
+				if (level.node < level.nodes - 1) {
+					level.children[0] = offset + blockSize;
+					level.childCount = 1;
+				}
+			} else {
+				offset = (levels[0].nodes + ++internalCount) * blockSize;
+			}
+		}
+
+		// The rest of the block is never written, so it stays zero
+		ByteBuffer page = batch(offset);
+		page.putLong(offset);
+		page.putInt(level.n);
+		page.put((byte) (level.leaf ? 1 : 0));
+		for (int i = 0; i < 2 * degree - 1; i++) {
+			if (i < level.n) {
+				page.putLong(level.keys[i]);
+				page.putInt(level.frequencies[i]);
+			} else {
+				page.putLong(0L).putInt(0);
+			}
+		}
+		for (int i = 0; i < 2 * degree; i++) {
+			page.putLong(i < level.childCount ? level.children[i] : 0L);
+		}
+		page.clear();
+
+		level.n = 0;
+		level.childCount = 0;
+		level.node++;
+
+		return offset;
+	}
+
+	/**
+	 * Allocates the next block for a node of the compressed layout.
+	 * @return byte offset of the block
+	 */
+	private long allocate() {
+		nodeCount++;
+		return (long) nodeCount * blockSize;
+	}
+
+	/**
+	 * Adds a sequence to the leaf under construction in the compressed layout.
+	 * If the leaf is full, it is written and a new leaf is started, and the
+	 * shortest separator between them is added to the level above.
+	 * @param key - encoded sequence
+	 * @param frequency - frequency of the sequence
+	 * @throws IOException
+	 */
+	private void appendPacked(long key, int frequency) throws IOException {
+
+		PackedLevel leaf = packedLevels.get(0);
+		int frequencyWidth = PackedPage.width(frequency - 1);
+		if (leaf.n > 0
+				&& PackedPage.LEAF_KEYS_POS
+						+ PackedPage.packedSize(leaf.n + 1,
+								PackedPage.width(key - leaf.keys[0]))
+						+ PackedPage.packedSize(leaf.n + 1,
+								Math.max(leaf.frequencyWidth, frequencyWidth))
+						+ PackedPage.SLACK > blockSize) {
+			long next = allocate();
+			writePacked(leaf, next);
+
+			long separator = PackedPage.separator(leaf.keys[leaf.n - 1], key);
+			long left = leaf.offset;
+			leaf.start(next);
+			addSeparator(1, separator, next, left);
+		}
+
+		leaf.ensureCapacity(leaf.n + 1);
+		leaf.keys[leaf.n] = key;
+		leaf.frequencies[leaf.n] = frequency;
+		leaf.frequencyWidth = Math.max(leaf.frequencyWidth, frequencyWidth);
+		leaf.n++;
+	}
+
+	/**
+	 * Adds a separator and the child to its right to the internal node under
+	 * construction on a level of the compressed layout. If the node is full,
+	 * it is written and a new node is started with the child, and the
+	 * separator moves to the level above.
+	 * @param l - level
+	 * @param separator - separator
+	 * @param child - byte offset of the child right of the separator
+	 * @param left - byte offset of the child left of the separator, the first
+	 *          child if the level is new
+	 * @throws IOException
+	 */
+	private void addSeparator(int l, long separator, long child, long left)
+			throws IOException {
+
+		if (l == packedLevels.size()) {
+			PackedLevel root = new PackedLevel(false, allocate());
+			root.children[0] = left;
+			packedLevels.add(root);
+		}
+
+		PackedLevel level = packedLevels.get(l);
+		int n = level.n + 1;
+		int shift = Math.min(level.shift, Long.numberOfTrailingZeros(separator));
+		long base = level.n > 0 ? level.keys[0] : separator;
+		int size = PackedPage.SEPARATORS_POS
+				+ PackedPage.packedSize(n, PackedPage.width((separator - base) >>> shift))
+				+ PackedPage.packedSize(n + 1, PackedPage.width((child - level.children[0])
+						/ blockSize)) + PackedPage.SLACK;
+
+		if (level.n > 0 && size > blockSize) {
+			long next = allocate();
+			writePacked(level, 0);
+
+			long node = level.offset;
+			level.start(next);
+			level.children[0] = child;
+			addSeparator(l + 1, separator, next, node);
+			return;
+		}
+
+		level.ensureCapacity(n + 1);
+		level.keys[level.n] = separator;
+		level.children[n] = child;
+		level.shift = shift;
+		level.n = n;
+	}
+
+	/**
+	 * Encodes a node of the compressed layout (see PackedPage) into the write
+	 * batch.
+	 * @param level - level of the node
+	 * @param next - byte offset of the next leaf, 0 for the last leaf
+	 * @throws IOException
+	 */
+	private void writePacked(PackedLevel level, long next) throws IOException {
+
+		ByteBuffer page = batch(level.offset);
+		page.putLong(level.offset);
+		page.putInt(level.n);
+		page.put((byte) (level.leaf ? 1 : 0));
+
+		int n = level.n;
+		long base = n > 0 ? level.keys[0] : 0;
+		if (level.leaf) {
+			int width = n > 0 ? PackedPage.width(level.keys[n - 1] - base) : 0;
+			page.putLong(next);
+			page.putLong(base);
+			page.put((byte) width);
+			page.put((byte) level.frequencyWidth);
+			PackedPage.put(page, level.keys, 0, n, base, 0, width);
+			PackedPage.put(page, level.frequencies, 0, n, 1, 0,
+					level.frequencyWidth);
+		} else {
+			int shift = n > 0 ? level.shift : 0;
+			int width = n > 0 ? PackedPage.width((level.keys[n - 1] - base) >>> shift)
+					: 0;
+			int blockShift = Integer.numberOfTrailingZeros(blockSize);
+			long childBase = level.children[0];
+			int childWidth = PackedPage
+					.width((level.children[n] - childBase) >>> blockShift);
+			page.putLong(base);
+			page.put((byte) shift);
+			page.put((byte) width);
+			page.putLong(childBase >>> blockShift);
+			page.put((byte) childWidth);
+			PackedPage.put(page, level.keys, 0, n, base, shift, width);
+			PackedPage.put(page, level.children, 0, n + 1, childBase, blockShift,
+					childWidth);
+		}
+		while (page.hasRemaining()) {
+			page.put((byte) 0);
+		}
+		page.clear();
+	}
+
+	/**
+	 * Returns the cleared page for the node at the specified offset, which is
+	 * written by the next flush(). Nodes are batched only while they are
+	 * adjacent in the file, so a full batch or a gap flushes the batch first.
+	 * @param offset - byte offset of the node
+	 * @return page of the node
+	 * @throws IOException
+	 */
+	private ByteBuffer batch(long offset) throws IOException {
+		if (batched == WRITE_BATCH
+				|| (batched > 0 && offset != batchOffset + (long) batched * blockSize)) {
+			flush();
+		}
+		if (batched == 0) {
+			batchOffset = offset;
+		}
+		ByteBuffer page = pages[batched++];
+		page.clear();
+		return page;
+	}
+
+	/**
+	 * Writes the batched nodes with one gather write.
+	 * @throws IOException
+	 */
+	private void flush() throws IOException {
+		channel.position(batchOffset);
+		long remaining = (long) batched * blockSize;
+		while (remaining > 0) {
+			remaining -= channel.write(pages, 0, batched);
+		}
+		batched = 0;
+	}
+
+	/**
+	 * Node under construction on one level of the compressed layout. Keys
+	 * are the sequences of a leaf or the separators of an internal node.
+	 */
+	private class PackedLevel {
+		private boolean leaf;
+		private long offset;
+		private int n;
+		private long[] keys;
+		private long[] frequencies;
+		private long[] children;
+
+		/**
+		 * Number of bits of the largest frequency - 1 of a leaf.
+		 */
+		private int frequencyWidth;
+		/**
+		 * Number of trailing zero bits of every separator of an internal node.
+		 */
+		private int shift;
+
+		/**
+		 * @param leaf - true for the leaf level
+		 * @param offset - byte offset of the first node
+		 */
+		public PackedLevel(boolean leaf, long offset) {
+			this.leaf = leaf;
+			this.keys = new long[256];
+			if (leaf) {
+				this.frequencies = new long[256];
+			} else {
+				this.children = new long[257];
+			}
+			start(offset);
+		}
+
+		/**
+		 * Starts the next node of the level.
+		 * @param offset - byte offset of the node
+		 */
+		public void start(long offset) {
+			this.offset = offset;
+			this.n = 0;
+			this.frequencyWidth = 0;
+			this.shift = 64;
+		}
+
+		/**
+		 * Grows the arrays to hold at least capacity keys.
+		 */
+		public void ensureCapacity(int capacity) {
+			if (capacity > keys.length) {
+				keys = Arrays.copyOf(keys, keys.length * 2);
+				if (leaf) {
+					frequencies = Arrays.copyOf(frequencies, keys.length);
+				} else {
+					children = Arrays.copyOf(children, keys.length + 1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Node under construction on one level.
+	 */
+	private class Level {
+		private boolean leaf;
+		private long[] keys;
+		private int[] frequencies;
+		private long[] children;
+		private int n;
+		private int childCount;
+
+		/**
+		 * Index of the node under construction. Nodes 0 to extra - 1 hold one
+		 * more key (leaves) or child (internal nodes) than the others.
+		 */
+		private long node;
+		private long nodes;
+		private int size;
+		private long extra;
+
+		/**
+		 * @param leaf - true for the leaf level
+		 * @param nodes - number of nodes on the level
+		 * @param total - number of keys (leaves) or children (internal nodes)
+		 */
+		public Level(boolean leaf, long nodes, long total) {
+			this.leaf = leaf;
+			this.keys = new long[2 * degree - 1];
+			this.frequencies = new int[2 * degree - 1];
+			this.children = new long[2 * degree];
+
+			this.nodes = nodes;
+			this.size = (int) (total / nodes);
+			this.extra = total % nodes;
+		}
+
+		/**
+		 * Returns the planned number of keys (leaves) or children (internal
+		 * nodes) of the node under construction.
+		 */
+		public int plannedSize() {
+			return node < extra ? size + 1 : size;
+		}
+	}
+}
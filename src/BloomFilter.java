@@ -0,0 +1,297 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Blocked Bloom filter of the sequences of a BTree, stored next to the BTree
+ * file (see getFileName()). Every key sets one bit in each of the 8 longs of
+ * a single 64 byte block, so a lookup reads one cache line. The block and the
+ * bits are taken from one 64 bit hash of the key: the high half picks the
+ * block, the low half is multiplied by a different odd salt for every long
+ * and the top 6 bits of the product pick the bit.
+ *
+ * The filter has BITS_PER_KEY bits per sequence, which gives about 0.1% false
+ * positives. A key that is not in the filter is not in the tree, a key that is
+ * in the filter still has to be searched.
+ *
+ * binary file
+ * 8xb Length of the BTree file
+ * 4xb Number of blocks
+ * 8xb Build id of the BTree file
+ * 8xb CRC32 of the BTree file
+ * 36xb Unused, so the blocks are aligned to 64 bytes
+ * Blocks: 8 longs each
+ *
+ * The length and the build id identify the tree the filter was written for,
+ * so a filter of an older tree is ignored. Every tree writer stores a new
+ * random build id in the metadata (see BTree.newBuildId()), because a tree
+ * rebuilt from other sequences can have the same length, metadata and root
+ * node. open() only compares these header words, verify() also compares the
+ * checksum of the whole tree file.
+ */
+public class BloomFilter {
+
+	public final static int BITS_PER_KEY = 16;
+
+	private final static int HEADER_SIZE = 64;
+	private final static int BLOCK_LONGS = 8;
+
+	private final static int[] SALTS = { 0x47b6137b, 0x44974d91, 0x8824ad5b,
+			0xa2b7289d, 0x705495c7, 0x2df1424b, 0x9efc4947, 0x5c6bfb31 };
+
+	private int blocks;
+	private LongBuffer bits;
+	private RandomAccessFile file;
+
+	/**
+	 * Creates an empty filter sized for the number of keys.
+	 * @param keyCount - number of distinct keys that will be added
+	 */
+	public BloomFilter(long keyCount) {
+		long bitCount = Math.max(1, keyCount) * BITS_PER_KEY;
+		this.blocks = (int) Math.min(Integer.MAX_VALUE / BLOCK_LONGS,
+				(bitCount + 511) / 512);
+		this.bits = LongBuffer.wrap(new long[blocks * BLOCK_LONGS]);
+	}
+
+	/**
+	 * Maps a filter written by write().
+	 * @param filterFile - file the filter is stored in
+	 * @throws IOException
+	 */
+	private BloomFilter(String filterFile) throws IOException {
+		this.file = new RandomAccessFile(filterFile, "r");
+		FileChannel channel = file.getChannel();
+		ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+				channel.size());
+		this.blocks = buffer.getInt(8);
+		if (HEADER_SIZE + (long) blocks * BLOCK_LONGS * 8 != channel.size()) {
+			file.close();
+			throw new IOException("Invalid Bloom filter " + filterFile);
+		}
+		buffer.position(HEADER_SIZE);
+		this.bits = buffer.slice().asLongBuffer();
+	}
+
+	/**
+	 * Returns the name of the filter file of a BTree file.
+	 * @param bTreeFile - BTree file
+	 * @return filter file
+	 */
+	public static String getFileName(String bTreeFile) {
+		return bTreeFile + ".bloom";
+	}
+
+	/**
+	 * Maps the filter of a BTree file, if it has one.
+	 * @param bTreeFile - BTree file
+	 * @return filter, null if there is no filter or it belongs to another tree
+	 * @throws IOException
+	 */
+	public static BloomFilter open(String bTreeFile) throws IOException {
+		File filterFile = new File(getFileName(bTreeFile));
+		if (!filterFile.isFile()) {
+			return null;
+		}
+		BloomFilter filter = new BloomFilter(filterFile.getPath());
+		filter.file.seek(0);
+		long treeLength = filter.file.readLong();
+		filter.file.seek(12);
+		long treeBuildId = filter.file.readLong();
+		if (treeLength != new File(bTreeFile).length()
+				|| treeBuildId != buildId(bTreeFile)) {
+			filter.close();
+			return null;
+		}
+		return filter;
+	}
+
+	/**
+	 * Returns true if the filter of a BTree file was written for exactly the
+	 * current contents of the file. Unlike open(), this reads the whole tree.
+	 * @param bTreeFile - BTree file
+	 * @return true if the filter matches the tree, false if there is no
+	 *         filter or it belongs to another tree
+	 * @throws IOException
+	 */
+	public static boolean verify(String bTreeFile) throws IOException {
+		BloomFilter filter = open(bTreeFile);
+		if (filter == null) {
+			return false;
+		}
+		filter.file.seek(20);
+		long treeChecksum = filter.file.readLong();
+		filter.close();
+		return treeChecksum == checksum(bTreeFile);
+	}
+
+	/**
+	 * Writes the filter of every sequence of a BTree file next to it.
+	 * @param bTreeFile - BTree file
+	 * @throws IOException
+	 */
+	public static void create(String bTreeFile) throws IOException {
+		MappedBTree btree = new MappedBTree(bTreeFile);
+		try {
+			SequenceIterator sequences = btree.rangeScan(0, Long.MAX_VALUE);
+			long count = 0;
+			while (sequences.next()) {
+				count++;
+			}
+
+			BloomFilter filter = new BloomFilter(count);
+			sequences = btree.rangeScan(0, Long.MAX_VALUE);
+			while (sequences.next()) {
+				filter.add(sequences.sequence());
+			}
+			filter.write(getFileName(bTreeFile), new File(bTreeFile).length(),
+					btree.getBuildId(), checksum(bTreeFile));
+		} finally {
+			btree.close();
+		}
+	}
+
+	/**
+	 * Adds a key to the filter.
+	 * @param key - encoded sequence
+	 */
+	public void add(long key) {
+		long hash = hash(key);
+		int block = block(hash);
+		int low = (int) hash;
+		for (int i = 0; i < BLOCK_LONGS; i++) {
+			int index = block + i;
+			bits.put(index, bits.get(index) | (1L << ((low * SALTS[i]) >>> 26)));
+		}
+	}
+
+	/**
+	 * Returns false if the key was never added. Uses absolute gets only, so
+	 * a mapped filter can be read by any number of threads.
+	 * @param key - encoded sequence
+	 * @return false if the key is not in the tree, true if it may be
+	 */
+	public boolean mightContain(long key) {
+		long hash = hash(key);
+		int block = block(hash);
+		int low = (int) hash;
+		for (int i = 0; i < BLOCK_LONGS; i++) {
+			if ((bits.get(block + i) & (1L << ((low * SALTS[i]) >>> 26))) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the filter.
+	 * @param filterFile - file to write to, replaced if it exists
+	 * @param treeLength - length of the BTree file the filter belongs to
+	 * @param treeBuildId - build id in the metadata of the BTree file
+	 * @param treeChecksum - checksum of the BTree file (see checksum())
+	 * @throws IOException
+	 */
+	public void write(String filterFile, long treeLength, long treeBuildId,
+			long treeChecksum) throws IOException {
+		RandomAccessFile out = new RandomAccessFile(filterFile, "rw");
+		try {
+			out.setLength(0);
+			FileChannel channel = out.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putLong(treeLength);
+			header.putInt(blocks);
+			header.putLong(treeBuildId);
+			header.putLong(treeChecksum);
+			header.clear();
+			channel.write(header);
+
+			ByteBuffer buffer = ByteBuffer.allocateDirect(GeneBankParser.BUFFER_SIZE);
+			for (int i = 0; i < bits.capacity(); i++) {
+				if (!buffer.hasRemaining()) {
+					buffer.flip();
+					channel.write(buffer);
+					buffer.clear();
+				}
+				buffer.putLong(bits.get(i));
+			}
+			buffer.flip();
+			channel.write(buffer);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Closes the file of a mapped filter.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (file != null) {
+			file.close();
+		}
+	}
+
+	/**
+	 * Returns the build id stored in the metadata of a BTree file.
+	 * @param bTreeFile - BTree file
+	 * @return build id
+	 * @throws IOException
+	 */
+	private static long buildId(String bTreeFile) throws IOException {
+		RandomAccessFile tree = new RandomAccessFile(bTreeFile, "r");
+		try {
+			tree.seek(BTree.BUILD_ID_POS);
+			return tree.readLong();
+		} finally {
+			tree.close();
+		}
+	}
+
+	/**
+	 * Returns the CRC32 of a BTree file, for verify(). It is computed once
+	 * when the filter is created, which scans the whole tree anyway.
+	 * @param bTreeFile - BTree file
+	 * @return checksum
+	 * @throws IOException
+	 */
+	public static long checksum(String bTreeFile) throws IOException {
+		RandomAccessFile tree = new RandomAccessFile(bTreeFile, "r");
+		try {
+			FileChannel channel = tree.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(GeneBankParser.BUFFER_SIZE);
+			CRC32 crc = new CRC32();
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				crc.update(buffer);
+				buffer.clear();
+			}
+			return crc.getValue();
+		} finally {
+			tree.close();
+		}
+	}
+
+	/**
+	 * Returns the index of the first long of the block of the hash.
+	 */
+	private int block(long hash) {
+		return (int) (((hash >>> 32) * blocks) >>> 32) * BLOCK_LONGS;
+	}
+
+	/**
+	 * Finalizer of MurmurHash3, which spreads every bit of the key over the
+	 * whole hash.
+	 */
+	private static long hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+}
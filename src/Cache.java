@@ -1,92 +1,366 @@
-import java.util.LinkedList;
+import java.io.IOException;
 
 /**
  * Generic Cache for storing a specified number of T objects and recording
  * the number of cache references and hits.
+ *
+ * Objects are identified by a long key (the byte offset of a BTree node).
+ * A hash index finds an object in O(1) and intrusive doubly linked lists
+ * keep the objects in eviction order, so getObject, addObject and
+ * removeObject are all O(1). Objects added as dirty are handed to the
+ * WriteBack when they are evicted or the cache is flushed.
+ *
+ * Which object is evicted depends on the Policy. Pinned objects are never
+ * evicted; at most half of the cache can be pinned.
  * @author Jacob Biggs
  *
  * @param <T> type
  */
 public class Cache<T> {
-	
+
+	/**
+	 * Eviction policies.
+	 */
+	public enum Policy {
+		/**
+		 * Evicts the least recently used object.
+		 */
+		LRU("lru"),
+		/**
+		 * New objects enter a FIFO queue (A1in) holding a quarter of the cache.
+		 * Keys evicted from it are remembered (A1out) and only objects that are
+		 * referenced again while remembered enter the main LRU queue (Am), so a
+		 * scan cannot flush the main queue.
+		 */
+		TWO_Q("2q"),
+		/**
+		 * New objects enter a small LRU window. An object leaving the window
+		 * only replaces the least recently used object of the main queue if it
+		 * was referenced more often, according to a frequency sketch of recent
+		 * references (W-TinyLFU).
+		 */
+		TINY_LFU("tinylfu");
+
+		private String name;
+
+		private Policy(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Returns the policy with the specified name (lru, 2q or tinylfu).
+		 * @param name - name of the policy
+		 * @return policy
+		 */
+		public static Policy forName(String name) {
+			for (Policy p : values()) {
+				if (p.name.equalsIgnoreCase(name)) {
+					return p;
+				}
+			}
+			throw new IllegalArgumentException("Unknown cache policy: " + name);
+		}
+
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * Queue an entry is linked into.
+	 */
+	private final static byte MAIN = 0;
+	private final static byte IN = 1;
+	private final static byte GHOST = 2;
+	private final static byte PINNED = 3;
+
 	private int maxSize;
 	private int size;
-	
+	private Policy policy;
+
 	private int cacheHit;
 	private int cacheRef;
-	
-	private LinkedList<T> list;
-	
+
+	/**
+	 * Hash index, entries in the same bucket are chained through hashNext.
+	 */
+	private Entry<T>[] table;
+	private int shift;
+
+	/**
+	 * Sentinels of the queues, head.next is the most recently added or used
+	 * entry and head.prev the next one to evict. main is the LRU queue of
+	 * every policy, in is A1in (2Q) or the window (TinyLFU), out holds the
+	 * keys remembered by 2Q.
+	 */
+	private Entry<T> main;
+	private Entry<T> in;
+	private Entry<T> out;
+	private Entry<T> pinned;
+	private int inSize;
+	private int inMaxSize;
+	private int outSize;
+	private int outMaxSize;
+	private int pinnedSize;
+
+	/**
+	 * Count-min sketch of recent references (TinyLFU), 4 rows of byte
+	 * counters. All counters are halved after resetAt references, so old
+	 * references lose weight.
+	 */
+	private final static int SKETCH_DEPTH = 4;
+	private final static int SKETCH_MAX = 15;
+	private byte[] sketch;
+	private int sketchShift;
+	private int sketchWidth;
+	private int additions;
+	private int resetAt;
+
+	private WriteBack<T> writeBack;
+
+	/**
+	 * Writes a dirty object back to its storage.
+	 * @param <T> type
+	 */
+	public interface WriteBack<T> {
+		public void write(long key, T obj) throws IOException;
+	}
+
 	/**
 	 * Creates a cache with a specified number of elements.
 	 * @param maxSize - number of elements
 	 */
 	public Cache(int maxSize){
+		this(maxSize, null);
+	}
+
+	/**
+	 * Creates an LRU cache with a specified number of elements, that writes
+	 * dirty elements back when they are evicted.
+	 * @param maxSize - number of elements
+	 * @param writeBack - called for dirty elements, may be null
+	 */
+	public Cache(int maxSize, WriteBack<T> writeBack){
+		this(maxSize, Policy.LRU, writeBack);
+	}
+
+	/**
+	 * Creates a cache with a specified number of elements and eviction
+	 * policy, that writes dirty elements back when they are evicted.
+	 * @param maxSize - number of elements
+	 * @param policy - eviction policy
+	 * @param writeBack - called for dirty elements, may be null
+	 */
+	public Cache(int maxSize, Policy policy, WriteBack<T> writeBack){
 		this.size = 0;
 		this.maxSize = maxSize;
-		
+		this.policy = policy;
+
 		this.cacheHit = 0;
 		this.cacheRef = 0;
-		
-		this.list = new LinkedList<T>();
+
+		if (policy == Policy.TWO_Q) {
+			this.inMaxSize = Math.max(1, maxSize / 4);
+			this.outMaxSize = Math.max(1, maxSize / 2);
+		} else if (policy == Policy.TINY_LFU) {
+			this.inMaxSize = Math.max(1, maxSize / 100);
+		}
+
+		// Room for every entry, the remembered keys and one entry being added
+		int bits = 1;
+		while ((1 << bits) < (maxSize + outMaxSize + 1) * 2) {
+			bits++;
+		}
+		this.table = newTable(1 << bits);
+		this.shift = 64 - bits;
+
+		if (policy == Policy.TINY_LFU) {
+			int sketchBits = bits + 2;
+			this.sketchWidth = 1 << sketchBits;
+			this.sketchShift = 64 - sketchBits;
+			this.sketch = new byte[SKETCH_DEPTH * sketchWidth];
+			this.resetAt = Math.max(16, maxSize * 10);
+		}
+
+		this.main = newList();
+		this.in = newList();
+		this.out = newList();
+		this.pinned = newList();
+
+		this.writeBack = writeBack;
 	}
-	
+
 	/**
 	 * Gets an object from the cache if it exists and moves it to the front of
 	 * the cache. Returns null otherwise.
-	 * @param obj - object to get
+	 * @param key - key of the object to get
 	 * @return obj or null
 	 */
-	public T getObject(T obj){
+	public T getObject(long key){
 		cacheRef++;
-		
-		if( list.contains(obj) ){
+		recordReference(key);
+
+		Entry<T> e = find(key);
+		if (e != null && e.queue != GHOST) {
 			cacheHit++;
-			list.remove(obj);
-			list.addFirst(obj);
-			return obj;
-		} else {
-			addObject(obj);
+			touch(e);
+			return e.obj;
 		}
 		return null;
 	}
-	
+
+	/**
+	 * Adds object to the front of the cache, removing last element of cache
+	 * if cache is full. If the key is already cached, its object is replaced.
+	 * @param key - key of the object
+	 * @param obj - object to add
+	 * @throws IOException if the evicted element could not be written back
+	 */
+	public void addObject(long key, T obj) throws IOException {
+		addObject(key, obj, false);
+	}
+
 	/**
 	 * Adds object to the front of the cache, removing last element of cache
-	 * if cache is full.
+	 * if cache is full. If the key is already cached, its object is replaced.
+	 * A dirty object is written back before it leaves the cache.
+	 * @param key - key of the object
 	 * @param obj - object to add
+	 * @param dirty - true if obj differs from its stored version
+	 * @throws IOException if the evicted element could not be written back
+	 */
+	public void addObject(long key, T obj, boolean dirty) throws IOException {
+		if (maxSize == 0) {
+			if (dirty) {
+				writeBack.write(key, obj);
+			}
+			return;
+		}
+
+		Entry<T> e = find(key);
+		if (e != null && e.queue != GHOST) {
+			e.obj = obj;
+			e.dirty |= dirty;
+			touch(e);
+			return;
+		}
+
+		if (e != null) {
+			// 2Q: referenced again while remembered, goes to the main queue
+			unlink(e);
+			e.obj = obj;
+			e.dirty = dirty;
+			link(e, MAIN);
+		} else {
+			e = new Entry<T>();
+			e.key = key;
+			e.obj = obj;
+			e.dirty = dirty;
+
+			int i = index(key);
+			e.hashNext = table[i];
+			table[i] = e;
+			link(e, policy == Policy.LRU ? MAIN : IN);
+		}
+		size++;
+
+		while (size > maxSize) {
+			evict();
+		}
+	}
+
+	/**
+	 * Pins the object with the specified key, so that it is not evicted
+	 * until unpinAll() is called. Fails if the object is not cached or half of
+	 * the cache is already pinned.
+	 * @param key - key of the object to pin
+	 * @return true if the object is pinned, false otherwise
+	 */
+	public boolean pin(long key){
+		Entry<T> e = find(key);
+		if (e == null || e.queue == GHOST) {
+			return false;
+		} else if (e.queue == PINNED) {
+			return true;
+		} else if (pinnedSize >= maxSize / 2) {
+			return false;
+		}
+
+		unlink(e);
+		link(e, PINNED);
+		return true;
+	}
+
+	/**
+	 * Unpins all pinned objects, making them the most recently used objects.
+	 */
+	public void unpinAll(){
+		while (pinned.next != pinned) {
+			Entry<T> e = pinned.prev;
+			unlink(e);
+			link(e, MAIN);
+		}
+	}
+
+	/**
+	 * Removes the object with the specified key from the cache, without
+	 * writing it back.
+	 * @param key - key of the object to remove
+	 * @return removed object, null if it was not cached
 	 */
-	public void addObject(T obj){
-		list.addFirst(obj);
-		
-		if (size == maxSize)
-			list.removeLast();
-		else
-			size++;
+	public T removeObject(long key){
+		Entry<T> e = find(key);
+		if (e == null) {
+			return null;
+		}
+
+		unlinkHash(e);
+		unlink(e);
+		if (e.queue == GHOST) {
+			return null;
+		}
+		this.size--;
+		return e.obj;
 	}
-	
+
 	/**
-	 * Removes the specified object from the cache.
-	 * @param obj - object to remove
-	 * @return true if removed, false otherwise
+	 * Writes every dirty object back. The objects stay in the cache.
+	 * @throws IOException
 	 */
-	public boolean removeObject(T obj){
-		boolean removed = list.remove(obj);
-		if (removed) this.size--;
-		return removed;
+	public void flush() throws IOException {
+		flush(pinned);
+		flush(in);
+		flush(main);
 	}
-	
+
 	/**
-	 * Clears all objects from the cache and resets cache statistics.
+	 * Clears all objects from the cache and resets cache statistics. Dirty
+	 * objects are discarded, call flush() first to keep them.
 	 */
 	public void clearCache(){
-		list.clear();
+		for (int i = 0; i < table.length; i++) {
+			table[i] = null;
+		}
+		this.main = newList();
+		this.in = newList();
+		this.out = newList();
+		this.pinned = newList();
 		size = 0;
-		
+		inSize = 0;
+		outSize = 0;
+		pinnedSize = 0;
+
+		if (sketch != null) {
+			for (int i = 0; i < sketch.length; i++) {
+				sketch[i] = 0;
+			}
+			additions = 0;
+		}
+
 		cacheHit = 0;
 		cacheRef = 0;
 	}
-	
+
 	/**
 	 * Returns number of times this cache was referenced looking for an object.
 	 * @return number of references
@@ -94,7 +368,7 @@ public class Cache<T> {
 	public int getReferenceCount(){
 		return this.cacheRef;
 	}
-	
+
 	/**
 	 * Returns number of times a cache lookup was successful (getObject).
 	 * @return number of hits
@@ -103,4 +377,220 @@ public class Cache<T> {
 		return this.cacheHit;
 	}
 
+	public Policy getPolicy(){
+		return this.policy;
+	}
+
+	/**
+	 * Updates the position of an entry that was referenced.
+	 * @param e - referenced entry
+	 */
+	private void touch(Entry<T> e) {
+		// Entries in A1in keep their FIFO position
+		if (e.queue == MAIN || (e.queue == IN && policy == Policy.TINY_LFU)) {
+			byte queue = e.queue;
+			unlink(e);
+			link(e, queue);
+		}
+	}
+
+	/**
+	 * Evicts one unpinned entry, chosen by the policy.
+	 * @throws IOException
+	 */
+	private void evict() throws IOException {
+		Entry<T> victim;
+
+		if (policy == Policy.TWO_Q) {
+			if (inSize > inMaxSize || main.prev == main) {
+				// Remember the key of the entry leaving A1in
+				victim = in.prev;
+				unlink(victim);
+				writeBack(victim);
+				victim.obj = null;
+				link(victim, GHOST);
+				if (outSize > outMaxSize) {
+					Entry<T> e = out.prev;
+					unlinkHash(e);
+					unlink(e);
+				}
+				size--;
+				return;
+			}
+			victim = main.prev;
+		} else if (policy == Policy.TINY_LFU) {
+			if (inSize > inMaxSize || main.prev == main) {
+				// The entry leaving the window competes with the main queue's victim
+				Entry<T> candidate = in.prev;
+				unlink(candidate);
+				victim = main.prev;
+				link(candidate, MAIN);
+				if (victim == main) {
+					// Nothing to compete with, the main queue was empty
+					return;
+				} else if (frequency(candidate.key) <= frequency(victim.key)) {
+					victim = candidate;
+				}
+			} else {
+				victim = main.prev;
+			}
+		} else {
+			victim = main.prev;
+		}
+
+		unlinkHash(victim);
+		unlink(victim);
+		writeBack(victim);
+		size--;
+	}
+
+	private void writeBack(Entry<T> e) throws IOException {
+		if (e.dirty) {
+			writeBack.write(e.key, e.obj);
+			e.dirty = false;
+		}
+	}
+
+	private void flush(Entry<T> list) throws IOException {
+		for (Entry<T> e = list.next; e != list; e = e.next) {
+			writeBack(e);
+		}
+	}
+
+	/**
+	 * Counts a reference in the frequency sketch.
+	 * @param key - referenced key
+	 */
+	private void recordReference(long key) {
+		if (sketch == null) {
+			return;
+		}
+
+		for (int i = 0; i < SKETCH_DEPTH; i++) {
+			int j = i * sketchWidth + sketchIndex(key, i);
+			if (sketch[j] < SKETCH_MAX) {
+				sketch[j]++;
+			}
+		}
+
+		if (++additions == resetAt) {
+			for (int i = 0; i < sketch.length; i++) {
+				sketch[i] >>= 1;
+			}
+			additions /= 2;
+		}
+	}
+
+	/**
+	 * Returns the estimated number of recent references to a key.
+	 * @param key - key
+	 * @return estimated frequency
+	 */
+	private int frequency(long key) {
+		int f = SKETCH_MAX;
+		for (int i = 0; i < SKETCH_DEPTH; i++) {
+			f = Math.min(f, sketch[i * sketchWidth + sketchIndex(key, i)]);
+		}
+		return f;
+	}
+
+	private int sketchIndex(long key, int row) {
+		return (int) (((key + row) * 0x9E3779B97F4A7C15L + row) >>> sketchShift);
+	}
+
+	private Entry<T> find(long key) {
+		Entry<T> e = table[index(key)];
+		while (e != null && e.key != key) {
+			e = e.hashNext;
+		}
+		return e;
+	}
+
+	/**
+	 * Keys are block aligned offsets, so the low bits carry little
+	 * information. Fibonacci hashing takes the high bits of the product.
+	 */
+	private int index(long key) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+	}
+
+	private void unlinkHash(Entry<T> e) {
+		int i = index(e.key);
+		if (table[i] == e) {
+			table[i] = e.hashNext;
+		} else {
+			Entry<T> p = table[i];
+			while (p.hashNext != e) {
+				p = p.hashNext;
+			}
+			p.hashNext = e.hashNext;
+		}
+		e.hashNext = null;
+	}
+
+	/**
+	 * Creates a hash index, generic arrays cannot be created directly.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> Entry<T>[] newTable(int size) {
+		return (Entry<T>[]) new Entry<?>[size];
+	}
+
+	private Entry<T> newList() {
+		Entry<T> head = new Entry<T>();
+		head.next = head;
+		head.prev = head;
+		return head;
+	}
+
+	/**
+	 * Links the entry at the front of a queue.
+	 * @param e - entry
+	 * @param queue - MAIN, IN, GHOST or PINNED
+	 */
+	private void link(Entry<T> e, byte queue) {
+		Entry<T> head;
+		if (queue == IN) {
+			head = in;
+			inSize++;
+		} else if (queue == GHOST) {
+			head = out;
+			outSize++;
+		} else if (queue == PINNED) {
+			head = pinned;
+			pinnedSize++;
+		} else {
+			head = main;
+		}
+
+		e.queue = queue;
+		e.prev = head;
+		e.next = head.next;
+		head.next.prev = e;
+		head.next = e;
+	}
+
+	private void unlink(Entry<T> e) {
+		e.prev.next = e.next;
+		e.next.prev = e.prev;
+
+		if (e.queue == IN) {
+			inSize--;
+		} else if (e.queue == GHOST) {
+			outSize--;
+		} else if (e.queue == PINNED) {
+			pinnedSize--;
+		}
+	}
+
+	private static class Entry<T> {
+		private long key;
+		private T obj;
+		private boolean dirty;
+		private byte queue;
+		private Entry<T> prev;
+		private Entry<T> next;
+		private Entry<T> hashNext;
+	}
+
 }
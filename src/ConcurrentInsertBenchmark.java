@@ -0,0 +1,111 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Stress test for concurrent inserts into a LongBTree. The sequences of the
+ * GBK file are dealt round-robin to 1, 4 and 16 threads (or the specified
+ * thread counts), which insert them into one concurrent LongBTree. Afterwards
+ * the tree is written, mapped, and the frequency of every sequence is
+ * compared with a single-threaded count.
+ *
+ * Usage: ConcurrentInsertBenchmark <gbk file> <sequence length> [<threads> ...]
+ */
+public class ConcurrentInsertBenchmark {
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length < 2) {
+
+			System.err
+					.println("Improper command format: ConcurrentInsertBenchmark <gbk file> <sequence length> [<threads> ...]");
+			System.exit(1);
+		}
+
+		String gbkFile = args[0];
+		int sequenceLength = Integer.parseInt(args[1]);
+		int[] threadCounts = { 1, 4, 16 };
+		if (args.length > 2) {
+			threadCounts = new int[args.length - 2];
+			for (int i = 2; i < args.length; i++) {
+				threadCounts[i - 2] = Integer.parseInt(args[i]);
+			}
+		}
+
+		final LongIntHashMap expected = new LongIntHashMap();
+		final long[][] sequences = { new long[1 << 16] };
+		final int[] count = { 0 };
+		GeneBankParser.parse(gbkFile, sequenceLength, new SequenceSink() {
+			public void add(long sequence) {
+				if (count[0] == sequences[0].length) {
+					sequences[0] = Arrays.copyOf(sequences[0], count[0] * 2);
+				}
+				sequences[0][count[0]++] = sequence;
+				expected.add(sequence);
+			}
+		});
+
+		System.out.println("threads\tinserts\tms\tinserts/s\tverified");
+
+		for (int threads : threadCounts) {
+
+			run(sequences[0], count[0], sequenceLength, threads, expected);
+		}
+	}
+
+	private static void run(final long[] sequences, final int count,
+			int sequenceLength, final int threads, LongIntHashMap expected)
+			throws Exception {
+
+		File treeFile = File.createTempFile("benchmark", ".btree");
+		treeFile.deleteOnExit();
+		final LongBTree btree = LongBTree.concurrent(0, sequenceLength,
+				BTree.BLOCK_SIZE, treeFile.getPath());
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Object>> futures = new ArrayList<Future<Object>>();
+
+		long start = System.nanoTime();
+		for (int t = 0; t < threads; t++) {
+			final int first = t;
+			futures.add(executor.submit(new Callable<Object>() {
+				public Object call() throws IOException {
+					for (int i = first; i < count; i += threads) {
+						btree.insert(sequences[i]);
+					}
+					return null;
+				}
+			}));
+		}
+		for (Future<Object> future : futures) {
+			future.get();
+		}
+		long time = System.nanoTime() - start;
+		executor.shutdown();
+
+		btree.close();
+
+		// Every sequence must have been counted exactly once
+		MappedBTree mapped = new MappedBTree(treeFile.getPath());
+		int[] frequencies = new int[expected.size()];
+		long[] keys = expected.sortedKeys(frequencies);
+		boolean verified = true;
+		for (int i = 0; i < keys.length; i++) {
+			if (mapped.frequency(keys[i]) != frequencies[i]) {
+				verified = false;
+				break;
+			}
+		}
+		mapped.close();
+		treeFile.delete();
+
+		System.out.println(threads + "\t" + count + "\t" + time / 1000000 + "\t"
+				+ (long) (count / (time / 1e9)) + "\t" + verified);
+	}
+}
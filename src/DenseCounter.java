@@ -0,0 +1,79 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Counts sequences of up to DenseIndex.MAX_SEQUENCE_LENGTH bases in an int[]
+ * with one counter for every possible sequence, indexed by the encoded
+ * sequence itself, and writes them as a DenseIndex file. Adding a sequence
+ * is a single array increment, with no search and no hashing.
+ */
+public class DenseCounter implements SequenceSink {
+
+	private int sequenceLength;
+	private boolean canonical;
+	private int[] counts;
+
+	/**
+	 * Creates a counter of 4^sequenceLength zero counts.
+	 * @param sequenceLength - length of the sequences, 1 to
+	 *          DenseIndex.MAX_SEQUENCE_LENGTH
+	 * @param canonical - true if only canonical sequences are added
+	 */
+	public DenseCounter(int sequenceLength, boolean canonical) {
+		if (sequenceLength < 1 || sequenceLength > DenseIndex.MAX_SEQUENCE_LENGTH) {
+			throw new IllegalArgumentException("Sequence length (" + sequenceLength
+					+ ") must be between 1 and " + DenseIndex.MAX_SEQUENCE_LENGTH);
+		}
+		this.sequenceLength = sequenceLength;
+		this.canonical = canonical;
+		this.counts = new int[1 << (2 * sequenceLength)];
+	}
+
+	/**
+	 * Adds one occurrence of the sequence.
+	 * @param sequence - encoded sequence
+	 */
+	public void add(long sequence) {
+		counts[(int) sequence]++;
+	}
+
+	/**
+	 * Returns the count of the sequence.
+	 * @param sequence - encoded sequence
+	 * @return count
+	 */
+	public int get(long sequence) {
+		return counts[(int) sequence];
+	}
+
+	/**
+	 * Writes the counts as a DenseIndex file.
+	 * @param indexFile - file to write to, replaced if it exists
+	 * @throws IOException
+	 */
+	public void write(String indexFile) throws IOException {
+		RandomAccessFile out = new RandomAccessFile(indexFile, "rw");
+		try {
+			out.setLength(0);
+			FileChannel channel = out.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(GeneBankParser.BUFFER_SIZE);
+			buffer.putLong(DenseIndex.MAGIC);
+			buffer.putInt(sequenceLength);
+			buffer.putInt(canonical ? 1 : 0);
+			for (int i = 0; i < counts.length; i++) {
+				if (!buffer.hasRemaining()) {
+					buffer.flip();
+					channel.write(buffer);
+					buffer.clear();
+				}
+				buffer.putInt(counts[i]);
+			}
+			buffer.flip();
+			channel.write(buffer);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,165 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only view of a memory-mapped dense index, written by DenseCounter.
+ * The frequency of every possible sequence is stored at the index of the
+ * encoded sequence, so a lookup is a single read and a scan walks the array.
+ * With 4^k counters this is only practical for short sequences:
+ * AUTO_SEQUENCE_LENGTH (64 MB) is the longest GeneBankCreateBTree picks by
+ * itself, MAX_SEQUENCE_LENGTH (1 GB) the longest that fits in one mapping.
+ *
+ * binary file
+ * 8xb Magic (MAGIC, never a valid BTree degree)
+ * 4xb Sequence Length
+ * 4xb Canonical
+ * Frequencies: 4^(Sequence Length) x 4xb, in the order of the sequences
+ *
+ * Like MappedBTree, a DenseIndex is safe for any number of concurrent
+ * readers, it only uses absolute gets.
+ */
+public class DenseIndex implements KmerIndex {
+
+	/**
+	 * "DNADENSE" in ASCII.
+	 */
+	public final static long MAGIC = 0x444e4144454e5345L;
+
+	public final static int AUTO_SEQUENCE_LENGTH = 12;
+	public final static int MAX_SEQUENCE_LENGTH = 14;
+
+	private final static int HEADER_SIZE = 16;
+
+	private int sequenceLength;
+	private boolean canonical;
+	private long size;
+
+	private RandomAccessFile file;
+	private IntBuffer frequencies;
+
+	/**
+	 * Maps an existing dense index file.
+	 * @param indexFile - file the index is stored in
+	 * @throws IOException
+	 */
+	public DenseIndex(String indexFile) throws IOException {
+
+		this.file = new RandomAccessFile(indexFile, "r");
+		FileChannel channel = file.getChannel();
+		if (channel.size() < HEADER_SIZE) {
+			file.close();
+			throw new IOException("Invalid dense index " + indexFile);
+		}
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+				channel.size());
+
+		this.sequenceLength = buffer.getInt(8);
+		this.canonical = buffer.getInt(12) == 1;
+		this.size = 1L << (2 * sequenceLength);
+		if (buffer.getLong(0) != MAGIC || sequenceLength < 1
+				|| sequenceLength > MAX_SEQUENCE_LENGTH
+				|| channel.size() != HEADER_SIZE + size * 4) {
+			file.close();
+			throw new IOException("Invalid dense index " + indexFile);
+		}
+
+		buffer.position(HEADER_SIZE);
+		this.frequencies = buffer.slice().asIntBuffer();
+	}
+
+	public int frequency(long key) {
+		return key >= 0 && key < size ? frequencies.get((int) key) : 0;
+	}
+
+	public int[] searchBatch(long[] keys) {
+		int[] found = new int[keys.length];
+		searchSorted(keys, 0, keys.length, found);
+		return found;
+	}
+
+	/**
+	 * Looks up every sequence from from to to. The order of the sequences
+	 * does not matter.
+	 */
+	public void searchSorted(long[] keys, int from, int to, int[] frequencies) {
+		for (int i = from; i < to; i++) {
+			frequencies[i] = frequency(keys[i]);
+		}
+	}
+
+	/**
+	 * Returns an iterator over all sequences from lo to hi, inclusive, whose
+	 * frequency is not 0.
+	 */
+	public SequenceIterator rangeScan(long lo, long hi) {
+		lo = Math.max(0, lo);
+		hi = Math.min(size - 1, hi);
+		return lo <= hi ? new Scan(lo, hi) : new Scan(1, 0);
+	}
+
+	public SequenceIterator prefixScan(String prefix) {
+		long[] range = Sequence.prefixRange(prefix, sequenceLength);
+		return rangeScan(range[0], range[1]);
+	}
+
+	public TopSequences top(int n) throws IOException {
+		TopSequences top = new TopSequences(n);
+		top.addAll(rangeScan(0, size - 1));
+		return top;
+	}
+
+	public int getSequenceLength() {
+		return sequenceLength;
+	}
+
+	public boolean isCanonical() {
+		return canonical;
+	}
+
+	/**
+	 * Closes the index file. The mapping stays valid until it is garbage
+	 * collected.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * Iterator over the counters of a range that are not 0.
+	 */
+	private class Scan implements SequenceIterator {
+
+		private int next;
+		private int last;
+		private int sequence;
+		private int frequency;
+
+		public Scan(long lo, long hi) {
+			this.next = (int) lo;
+			this.last = (int) hi;
+		}
+
+		public boolean next() {
+			while (next <= last) {
+				sequence = next++;
+				frequency = frequencies.get(sequence);
+				if (frequency != 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public long sequence() {
+			return sequence;
+		}
+
+		public int frequency() {
+			return frequency;
+		}
+	}
+}
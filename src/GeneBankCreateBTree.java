@@ -1,9 +1,9 @@
-import java.io.BufferedReader;
-import java.io.DataInputStream;
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /*
  * Notes: Error codes
@@ -20,7 +20,58 @@ public class GeneBankCreateBTree {
 	public static void main(String[] args) {
 
 		int degree = 0, debugLevel = 0, sequenceLength = 0;
-		String gbkFile = "";
+		int blockSize = BTree.BLOCK_SIZE, cacheSize = 0, threads = 1;
+		Cache.Policy cachePolicy = Cache.Policy.LRU;
+		boolean bulk = false, generic = false, canonical = false, cached = false;
+		int layout = BTree.LAYOUT_BTREE;
+		String gbkFile = "", engine = "auto";
+
+		// Separate options (--name=value) from positional parameters
+		ArrayList<String> params = new ArrayList<String>();
+		for (String arg : args) {
+
+			if (arg.startsWith("--block-size=")) {
+
+				blockSize = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+			} else if (arg.startsWith("--cache-size=")) {
+
+				cacheSize = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+				cached = true;
+			} else if (arg.startsWith("--cache-policy=")) {
+
+				cachePolicy = Cache.Policy.forName(arg.substring(arg.indexOf('=') + 1));
+				cached = true;
+			} else if (arg.startsWith("--engine=")) {
+
+				engine = arg.substring(arg.indexOf('=') + 1);
+			} else if (arg.startsWith("--threads=")) {
+
+				threads = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+			} else if (arg.equals("--bulk")) {
+
+				bulk = true;
+			} else if (arg.equals("--bplus")) {
+
+				// The B+Tree layout is only written by the bulk loader
+				layout = BTree.LAYOUT_BPLUS;
+				bulk = true;
+			} else if (arg.equals("--compressed")) {
+
+				// Compressed pages are only written by the bulk loader
+				layout = BTree.LAYOUT_COMPRESSED;
+				bulk = true;
+			} else if (arg.equals("--canonical")) {
+
+				canonical = true;
+			} else if (arg.equals("--generic")) {
+
+				generic = true;
+			} else {
+
+				params.add(arg);
+			}
+		}
+		args = params.toArray(new String[params.size()]);
 
 		// Get parameters
 		try {
@@ -43,63 +94,184 @@ public class GeneBankCreateBTree {
 		} catch (IndexOutOfBoundsException e) {
 
 			System.err
-					.println("Improper command format: GeneBankCreateBTree <debree> <gbk file> <sequence length> [<debug level>]");
+					.println("Improper command format: GeneBankCreateBTree <degree> <gbk file> <sequence length> [<debug level>] [--block-size=<bytes>] [--cache-size=<nodes>] [--cache-policy=lru|2q|tinylfu] [--bulk] [--bplus] [--compressed] [--canonical] [--generic] [--engine=auto|btree|dense|hash] [--threads=<threads>]");
+			System.exit(1);
+		}
+
+		// The generic BTree does not store the canonical flag
+		if (canonical && generic) {
+
+			System.err.println("--canonical cannot be combined with --generic.");
+			System.exit(1);
+		}
+
+		// Short sequences are counted in a dense array, unless a BTree option was
+		// given
+		boolean dense = false, hash = false;
+		if (engine.equals("auto")) {
+
+			dense = sequenceLength <= DenseIndex.AUTO_SEQUENCE_LENGTH && !bulk
+					&& !generic;
+		} else if (engine.equals("dense")) {
+
+			if (bulk || generic) {
+
+				System.err.println("--engine=dense cannot be combined with --bulk, --bplus, --compressed or --generic.");
+				System.exit(1);
+			}
+			if (sequenceLength > DenseIndex.MAX_SEQUENCE_LENGTH) {
+
+				System.err.println("Invalid sequence length. The dense engine supports up to "
+						+ DenseIndex.MAX_SEQUENCE_LENGTH + " bases.");
+				System.exit(4);
+			}
+			dense = true;
+		} else if (engine.equals("hash")) {
+
+			// The generic BTree is only built by inserting
+			if (generic) {
+
+				System.err.println("--engine=hash cannot be combined with --generic.");
+				System.exit(1);
+			}
+			hash = true;
+		} else if (!engine.equals("btree")) {
+
+			System.err.println("Unknown engine '" + engine + "'. Must be auto, btree, dense or hash.");
 			System.exit(1);
 		}
 
+		// Several GBK files and threads are only counted by the hash engine
+		List<String> gbkFiles = gbkFiles(gbkFile);
+		if (!dense && (gbkFiles.size() > 1 || threads > 1)) {
+
+			if (generic) {
+
+				System.err.println("--generic cannot be combined with several GBK files or --threads.");
+				System.exit(1);
+			}
+			hash = true;
+		}
+
+		// Only the BTrees sequences are inserted into have a cache
+		if (cached && (dense || hash || bulk)) {
+
+			System.err.println("--cache-size and --cache-policy cannot be combined with --bulk, --bplus, --compressed, the dense or hash engine, several GBK files or --threads.");
+			System.exit(1);
+		}
+
+		if (!BTree.isValidBlockSize(blockSize)) {
+
+			System.err.println("Invalid block size. Must be a power of 2 between "
+					+ BTree.BLOCK_SIZE + " and " + BTree.MAX_BLOCK_SIZE + ".");
+			System.exit(3);
+		}
+
+		// Degree 0 selects the largest degree that fits in a block
+		if (degree == 0) {
+
+			degree = BTree.optimalDegree(blockSize);
+		}
+
 		// Create empty BTree, with degree and sequence length, then read gbkFile
 		try {
 
-			// Create empty BTree
-			BTree<Sequence> btree = new BTree<Sequence>(degree);
+			String bTreeFile = BTree.getFileName(gbkFile, sequenceLength, degree);
 
-			// Read gbkFile
-			FileInputStream fis = new FileInputStream(gbkFile);
-			DataInputStream dis = new DataInputStream(fis);
-			BufferedReader br = new BufferedReader(new InputStreamReader(dis));
-			String line = "", extra = "", pattern = "[\\s\\d]";
-			Sequence[] sa;
-			boolean startSequences = false;
+			for (String file : gbkFiles) {
 
-			while ((line = br.readLine()) != null) {
+				if (!new File(file).isFile()) {
 
-				// Wait to read sequences until we see ORIGIN. Stop reading when we see
-				// //.
-				if (!startSequences) {
+					throw new FileNotFoundException(file);
+				}
+			}
 
-					if (line.contains("ORIGIN")) {
+			// The filter of an earlier file of the same name does not apply, even if
+			// the build fails
+			new File(BloomFilter.getFileName(bTreeFile)).delete();
 
-						startSequences = true;
-					}
-					continue;
-				} else {
+			if (dense) {
 
-					if (line.contains("//")) {
+				// One counter for every possible sequence, written as is
+				DenseCounter counter = new DenseCounter(sequenceLength, canonical);
+				for (String file : gbkFiles) {
 
-						startSequences = false;
-						extra = "";
-						continue;
-					}
+					GeneBankParser.parse(file, sequenceLength, canonical, counter);
 				}
+				counter.write(bTreeFile);
+
+				DenseIndex index = new DenseIndex(bTreeFile);
+				System.out.println("Dense index: " + summary(index));
+				index.close();
+				return;
+			}
+
+			if (hash || bulk) {
+
+				BTreeBulkLoader loader;
+				if (hash) {
 
-				line = line.replaceAll(pattern, "");
-				line = extra + line;
+					// Count the sequences of all files in hash maps, in parallel
+					// chunks, then bulk load them in order
+					KmerCounter counter = new KmerCounter(sequenceLength, Math.max(1,
+							threads), KmerCounter.CHUNK_SIZE, canonical);
+					counter.count(gbkFiles);
 
-				sa = Sequence.parseSequences(line, sequenceLength);
+					loader = new BTreeBulkLoader(degree, sequenceLength, blockSize,
+							bTreeFile, counter.distinctCount(), layout);
+					loader.setCanonical(canonical);
+					counter.load(loader);
+				} else {
 
-				for (Sequence s : sa) {
+					// Sort and count all sequences, then write the BTree bottom-up
+					SequenceSorter sorter = new SequenceSorter();
+					GeneBankParser.parse(gbkFile, sequenceLength, canonical, sorter);
 
-					btree.insert(s);
+					loader = new BTreeBulkLoader(degree, sequenceLength, blockSize,
+							bTreeFile, sorter.distinctCount(), layout);
+					loader.setCanonical(canonical);
+					sorter.load(loader);
+					sorter.close();
 				}
+				loader.finish();
+			} else if (generic) {
 
-				extra = line.substring(line.length() - sequenceLength);
-			}
+				// Generic BTree of Sequence objects
+				BTree<Sequence> btree = new BTree<Sequence>(degree, sequenceLength,
+						blockSize, cacheSize, cachePolicy, bTreeFile);
+				insertSequences(gbkFile, sequenceLength, btree);
+				btree.write();
 
-			// @TODO gbkFile added to BTree. Now write to disk.
-			btree.write();
+				if (debugLevel > 0) {
 
-			dis.close();
-			System.out.println(btree.toString());
+					System.err.printf("Node visits per insert: %.3f%n",
+							(double) btree.getNodeVisits()
+									/ Math.max(1, btree.getInsertCount()));
+				}
+				btree.close();
+			} else {
+
+				// Create empty BTree
+				LongBTree btree = new LongBTree(degree, sequenceLength, blockSize,
+						cacheSize, cachePolicy, bTreeFile);
+				btree.setCanonical(canonical);
+				GeneBankParser.parse(gbkFile, sequenceLength, canonical, btree);
+
+				// gbkFile added to BTree. Now write to disk.
+				btree.write();
+
+				if (debugLevel > 0) {
+
+					System.err.printf("Node visits per insert: %.3f%n",
+							(double) btree.getNodeVisits()
+									/ Math.max(1, btree.getInsertCount()));
+				}
+				btree.close();
+			}
+
+			// Filter of every sequence, so that searches skip most missing ones
+			BloomFilter.create(bTreeFile);
+			print(bTreeFile, layout, generic, cacheSize, cachePolicy);
 		} catch (FileNotFoundException e) {
 
 			System.err
@@ -121,4 +293,108 @@ public class GeneBankCreateBTree {
 			System.exit(404);
 		}
 	}
+
+	/**
+	 * Prints a BTree file. Compressed files can only be read by MappedBTree,
+	 * so only their number of sequences is printed.
+	 * @param bTreeFile - BTree file
+	 * @param layout - layout of the file
+	 * @param generic - true to print the file as a BTree<Sequence>
+	 * @param cacheSize - cache size of the BTree
+	 * @param cachePolicy - cache policy of the BTree
+	 * @throws IOException
+	 */
+	static void print(String bTreeFile, int layout, boolean generic,
+			int cacheSize, Cache.Policy cachePolicy) throws IOException {
+
+		if (layout == BTree.LAYOUT_COMPRESSED) {
+
+			MappedBTree btree = new MappedBTree(bTreeFile);
+			System.out.println("Compressed BTree: " + summary(btree) + ", "
+					+ new File(bTreeFile).length() / btree.getBlockSize() + " blocks");
+			btree.close();
+			return;
+		}
+
+		if (generic) {
+
+			BTree<Sequence> btree = new BTree<Sequence>(bTreeFile, cacheSize,
+					cachePolicy);
+			System.out.println(btree.toString());
+			btree.close();
+			return;
+		}
+
+		LongBTree btree = new LongBTree(bTreeFile, cacheSize, cachePolicy);
+		System.out.println(btree.toString());
+		btree.close();
+	}
+
+	/**
+	 * Returns the number of sequences of an index and their total frequency.
+	 * @param index - index to scan
+	 * @return summary, e.g. "3 sequences, 5 occurrences"
+	 * @throws IOException
+	 */
+	static String summary(KmerIndex index) throws IOException {
+
+		SequenceIterator sequences = index.rangeScan(0, Long.MAX_VALUE);
+		long count = 0, total = 0;
+		while (sequences.next()) {
+			count++;
+			total += sequences.frequency();
+		}
+		return count + " sequences, " + total + " occurrences";
+	}
+
+	/**
+	 * Returns the GBK files to read: every .gbk file if the path is a
+	 * directory, otherwise the comma separated files, all relative to the
+	 * directory of the path.
+	 * @param path - directory or comma separated list of GBK files
+	 * @return GBK files
+	 */
+	static List<String> gbkFiles(String path) {
+
+		List<String> files = new ArrayList<String>();
+		File dir = new File(path);
+		if (dir.isDirectory()) {
+
+			String[] names = dir.list();
+			Arrays.sort(names);
+			for (String name : names) {
+
+				if (name.endsWith(".gbk")) {
+
+					files.add(new File(dir, name).getPath());
+				}
+			}
+		} else {
+
+			String parent = dir.getParent();
+			for (String name : path.substring(parent == null ? 0 : parent.length() + 1).split(",")) {
+
+				files.add(parent == null ? name : new File(parent, name).getPath());
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Reads the ORIGIN sections of a GBK file and inserts every sequence of the
+	 * specified length into the BTree.
+	 * @param gbkFile - GBK file
+	 * @param sequenceLength - length of the sequences
+	 * @param btree - BTree to insert into
+	 * @throws IOException
+	 */
+	static void insertSequences(String gbkFile, final int sequenceLength,
+			final BTree<Sequence> btree) throws IOException {
+
+		GeneBankParser.parse(gbkFile, sequenceLength, new SequenceSink() {
+			public void add(long sequence) throws IOException {
+				btree.insert(new Sequence(sequence, sequenceLength));
+			}
+		});
+	}
 }
\ No newline at end of file
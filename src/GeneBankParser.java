@@ -0,0 +1,361 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Streaming parser for the ORIGIN sections of a GBK file. Bytes are read
+ * from a ByteBuffer and every base is shifted into a rolling 2-bit encoded
+ * window of the sequence length (see Sequence.val()), so every sequence is
+ * passed to the sink as a long without allocating anything.
+ *
+ * An ORIGIN section starts with a line beginning with "ORIGIN" and ends at
+ * the "//" line. Whitespace and the position numbers in a section are
+ * skipped. An 'n' or any other character that is not a base empties the
+ * window, so no sequence spans it.
+ *
+ * In canonical mode the reverse complement of the window is rolled along
+ * with it, and the smaller of the two (see Sequence.canonical()) is passed
+ * to the sink, so a sequence and its reverse complement are counted as one.
+ *
+ * The state of the parser is kept between calls to parse(), so a file can
+ * be parsed in buffers of any size. Large sections can also be parsed in
+ * parallel: sections() finds the sections and parse(FileChannel, ...) parses
+ * one chunk of a section.
+ */
+public class GeneBankParser {
+
+	/**
+	 * Size of the buffer used by parse(String).
+	 */
+	public final static int BUFFER_SIZE = 1 << 16;
+
+	private final static byte[] ORIGIN = { 'O', 'R', 'I', 'G', 'I', 'N' };
+
+	/**
+	 * Code of every byte: 0 - 3 for a base, SKIP for whitespace and digits,
+	 * UNKNOWN for anything else.
+	 */
+	private final static byte[] CODES = new byte[256];
+	private final static byte SKIP = 4;
+	private final static byte UNKNOWN = 5;
+
+	static {
+		for (int i = 0; i < CODES.length; i++) {
+			CODES[i] = UNKNOWN;
+		}
+		CODES['a'] = CODES['A'] = 0;
+		CODES['c'] = CODES['C'] = 1;
+		CODES['g'] = CODES['G'] = 2;
+		CODES['t'] = CODES['T'] = 3;
+		for (int c = '0'; c <= '9'; c++) {
+			CODES[c] = SKIP;
+		}
+		CODES[' '] = CODES['\t'] = CODES['\r'] = CODES['\n'] = SKIP;
+	}
+
+	private int sequenceLength;
+	private long mask;
+	private int shift;
+	private boolean canonical;
+	private SequenceSink sink;
+
+	/**
+	 * True inside an ORIGIN section, from the line after the ORIGIN line.
+	 */
+	private boolean origin;
+	/**
+	 * True while skipping the rest of the ORIGIN line.
+	 */
+	private boolean header;
+	/**
+	 * Number of characters of "ORIGIN" matched at the start of the current
+	 * line, -1 if the line does not start with it.
+	 */
+	private int matched;
+	/**
+	 * Encoded window of the last bases.
+	 */
+	private long window;
+	/**
+	 * Encoded reverse complement of the window, used in canonical mode.
+	 */
+	private long reverse;
+	/**
+	 * Number of bases in the window, up to the sequence length.
+	 */
+	private int bases;
+
+	/**
+	 * Creates a parser that adds every sequence of the specified length to
+	 * the sink.
+	 * @param sequenceLength - length of the sequences, 1 to 31
+	 * @param sink - receives the sequences
+	 */
+	public GeneBankParser(int sequenceLength, SequenceSink sink) {
+		this(sequenceLength, false, sink);
+	}
+
+	/**
+	 * Creates a parser that adds every sequence of the specified length, or
+	 * its canonical form, to the sink.
+	 * @param sequenceLength - length of the sequences, 1 to 31
+	 * @param canonical - true to add canonical sequences
+	 * @param sink - receives the sequences
+	 */
+	public GeneBankParser(int sequenceLength, boolean canonical,
+			SequenceSink sink) {
+		this.sequenceLength = sequenceLength;
+		this.mask = (1L << (2 * sequenceLength)) - 1;
+		this.shift = 2 * (sequenceLength - 1);
+		this.canonical = canonical;
+		this.sink = sink;
+		this.origin = false;
+		this.header = false;
+		this.matched = 0;
+	}
+
+	/**
+	 * Reads the ORIGIN sections of a GBK file and adds every sequence of the
+	 * specified length to the sink.
+	 * @param gbkFile - GBK file
+	 * @param sequenceLength - length of the sequences
+	 * @param sink - receives the sequences
+	 * @throws IOException
+	 */
+	public static void parse(String gbkFile, int sequenceLength,
+			SequenceSink sink) throws IOException {
+		parse(gbkFile, sequenceLength, false, sink);
+	}
+
+	/**
+	 * Reads the ORIGIN sections of a GBK file and adds every sequence of the
+	 * specified length, or its canonical form, to the sink.
+	 * @param gbkFile - GBK file
+	 * @param sequenceLength - length of the sequences
+	 * @param canonical - true to add canonical sequences
+	 * @param sink - receives the sequences
+	 * @throws IOException
+	 */
+	public static void parse(String gbkFile, int sequenceLength,
+			boolean canonical, SequenceSink sink) throws IOException {
+
+		GeneBankParser parser = new GeneBankParser(sequenceLength, canonical,
+				sink);
+		FileInputStream in = new FileInputStream(gbkFile);
+		FileChannel channel = in.getChannel();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		try {
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				parser.parse(buffer);
+				buffer.clear();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Parses the remaining bytes of the buffer.
+	 * @param buffer - next bytes of the file
+	 * @throws IOException
+	 */
+	public void parse(ByteBuffer buffer) throws IOException {
+
+		int position = buffer.position();
+		int limit = buffer.limit();
+
+		while (position < limit) {
+			byte b = buffer.get(position++);
+
+			if (origin) {
+				byte code = CODES[b & 0xff];
+				if (code < SKIP) {
+					window = ((window << 2) | code) & mask;
+					reverse = (reverse >>> 2) | ((long) (3 - code) << shift);
+					if (bases < sequenceLength) {
+						bases++;
+					}
+					if (bases == sequenceLength) {
+						sink.add(canonical ? Math.min(window, reverse) : window);
+					}
+				} else if (code == UNKNOWN) {
+					bases = 0;
+					if (b == '/') {
+						// "//" ends the section, skip the rest of the line
+						origin = false;
+						matched = -1;
+					}
+				}
+			} else if (b == '\n') {
+				if (header) {
+					// Sequences start on the next line
+					header = false;
+					origin = true;
+					bases = 0;
+				}
+				matched = 0;
+			} else if (matched >= 0) {
+				if (b == ORIGIN[matched]) {
+					matched++;
+					if (matched == ORIGIN.length) {
+						header = true;
+						matched = -1;
+					}
+				} else {
+					matched = -1;
+				}
+			}
+		}
+		buffer.position(limit);
+	}
+
+	/**
+	 * Returns the byte ranges of the ORIGIN sections of a GBK file. A section
+	 * starts at the line after the ORIGIN line and ends at the "//" line, or
+	 * at the end of the file.
+	 * @param gbkFile - GBK file
+	 * @return start and end position of every section, in pairs
+	 * @throws IOException
+	 */
+	public static long[] sections(String gbkFile) throws IOException {
+
+		long[] sections = new long[16];
+		int n = 0;
+
+		FileInputStream in = new FileInputStream(gbkFile);
+		FileChannel channel = in.getChannel();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+		boolean origin = false, header = false;
+		int matched = 0;
+		long offset = 0;
+		try {
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				int limit = buffer.limit();
+				for (int i = 0; i < limit; i++) {
+					byte b = buffer.get(i);
+
+					if (origin) {
+						if (b == '/') {
+							sections[n++] = offset + i;
+							origin = false;
+							matched = -1;
+						}
+					} else if (b == '\n') {
+						if (header) {
+							if (n + 2 > sections.length) {
+								sections = Arrays.copyOf(sections, n * 2);
+							}
+							sections[n++] = offset + i + 1;
+							header = false;
+							origin = true;
+						}
+						matched = 0;
+					} else if (matched >= 0) {
+						if (b == ORIGIN[matched]) {
+							if (++matched == ORIGIN.length) {
+								header = true;
+								matched = -1;
+							}
+						} else {
+							matched = -1;
+						}
+					}
+				}
+				offset += limit;
+				buffer.clear();
+			}
+		} finally {
+			in.close();
+		}
+
+		if (origin) {
+			sections[n++] = offset;
+		}
+		return Arrays.copyOf(sections, n);
+	}
+
+	/**
+	 * Parses the chunk of an ORIGIN section between from and to, adding every
+	 * sequence that starts in the chunk to the sink. To finish the sequences
+	 * starting near the end of the chunk up to sequenceLength - 1 more bases
+	 * are read after it. Every sequence of a section is therefore found in
+	 * exactly one of a series of adjacent chunks.
+	 * @param channel - channel of the GBK file, only read by position
+	 * @param from - first byte of the chunk
+	 * @param to - byte after the chunk
+	 * @param end - end of the section, see sections()
+	 * @param sequenceLength - length of the sequences
+	 * @param sink - receives the sequences
+	 * @throws IOException
+	 */
+	public static void parse(FileChannel channel, long from, long to, long end,
+			int sequenceLength, SequenceSink sink) throws IOException {
+		parse(channel, from, to, end, sequenceLength, false, sink);
+	}
+
+	/**
+	 * Parses the chunk of an ORIGIN section between from and to like
+	 * parse(FileChannel, long, long, long, int, SequenceSink), adding the
+	 * canonical form of every sequence if canonical is true.
+	 * @param channel - channel of the GBK file, only read by position
+	 * @param from - first byte of the chunk
+	 * @param to - byte after the chunk
+	 * @param end - end of the section, see sections()
+	 * @param sequenceLength - length of the sequences
+	 * @param canonical - true to add canonical sequences
+	 * @param sink - receives the sequences
+	 * @throws IOException
+	 */
+	public static void parse(FileChannel channel, long from, long to, long end,
+			int sequenceLength, boolean canonical, SequenceSink sink)
+			throws IOException {
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(BUFFER_SIZE,
+				Math.max(1, end - from)));
+		long mask = (1L << (2 * sequenceLength)) - 1;
+		int shift = 2 * (sequenceLength - 1);
+		long window = 0, reverse = 0;
+		int bases = 0, after = 0;
+
+		long position = from;
+		while (position < end) {
+			buffer.clear();
+			if (end - position < buffer.capacity()) {
+				buffer.limit((int) (end - position));
+			}
+			int read = channel.read(buffer, position);
+			if (read <= 0) {
+				return;
+			}
+
+			for (int i = 0; i < read; i++, position++) {
+				byte code = CODES[buffer.get(i) & 0xff];
+				if (code < SKIP) {
+					// Sequences starting after the chunk belong to the next one
+					if (position >= to && ++after == sequenceLength) {
+						return;
+					}
+					window = ((window << 2) | code) & mask;
+					reverse = (reverse >>> 2) | ((long) (3 - code) << shift);
+					if (bases < sequenceLength) {
+						bases++;
+					}
+					if (bases == sequenceLength) {
+						sink.add(canonical ? Math.min(window, reverse) : window);
+					}
+				} else if (code == UNKNOWN) {
+					if (position >= to) {
+						return;
+					}
+					bases = 0;
+				}
+			}
+		}
+	}
+}
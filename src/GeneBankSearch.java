@@ -5,46 +5,75 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class GeneBankSearch {
 
 	public static void main(String[] args) {
 
-		BTree btree = null;
+		KmerIndex btree = null;
+		BloomFilter filter = null;
 		String bTreeFile = "", queryFile = "";
-		ArrayList<Sequence> queries = new ArrayList<Sequence>();
-		int debugLevel = 0, sequenceLength = 0;
+		int debugLevel = 0, sequenceLength = 0, threads = 0, top = 0;
+
+		// Separate options (--name=value) from positional parameters
+		ArrayList<String> params = new ArrayList<String>();
+		for (String arg : args) {
+
+			if (arg.startsWith("--threads=")) {
+
+				threads = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+			} else if (arg.startsWith("--top=")) {
+
+				top = Integer.parseInt(arg.substring(arg.indexOf('=') + 1));
+			} else {
+
+				params.add(arg);
+			}
+		}
+		args = params.toArray(new String[params.size()]);
 
 		// Get parameters
 		try {
 
 			bTreeFile = args[0];
-			queryFile = args[1];
+
+			// The most frequent sequences are listed without a query file
+			int next = 1;
+			if (top == 0) {
+
+				queryFile = args[next++];
+			}
 
 			// If exists, set debug level
-			if (args.length > 2) {
+			if (args.length > next) {
 
-				debugLevel = Integer.parseInt(args[2]);
+				debugLevel = Integer.parseInt(args[next]);
 			}
 		} catch (IndexOutOfBoundsException e) {
 
 			System.err
-					.println("Improper command format: GeneBankSearch <btree file> <query file> [<debug level>]");
+					.println("Improper command format: GeneBankSearch <btree file> <query file> [<debug level>] [--threads=<threads>]\n       GeneBankSearch <btree file> --top=<n> [<debug level>]");
 			System.exit(1);
 		}
 
-		// Read bTreeFile, create BTree
+		// Map bTreeFile
 		try {
-			FileInputStream fis = new FileInputStream(bTreeFile);
-			DataInputStream dis = new DataInputStream(fis);
-			BufferedReader br = new BufferedReader(new InputStreamReader(dis));
 
-			// @TODO Do something
-			/*
-			 * btree = new BTree(btreeFile);
-			 */
+			// A BTree, or a dense index for short sequences
+			btree = KmerIndex.open(bTreeFile);
+			sequenceLength = btree.getSequenceLength();
 
-			dis.close();
+			// Queries that miss the Bloom filter of the tree are not searched
+			if (top == 0) {
+
+				filter = BloomFilter.open(bTreeFile);
+			}
 		} catch (FileNotFoundException e) {
 
 			System.err
@@ -67,6 +96,38 @@ public class GeneBankSearch {
 			System.exit(2);
 		}
 
+		// List the most frequent sequences
+		if (top > 0) {
+
+			try {
+
+				int[] frequencies = new int[top];
+				long[] sequences = btree.top(top).sortedSequences(frequencies);
+
+				StringBuilder results = new StringBuilder();
+				for (int i = 0; i < sequences.length; i++) {
+
+					results.append(Sequence.toSequence(new Sequence(sequences[i],
+							sequenceLength)));
+					results.append(": ");
+					results.append(frequencies[i]);
+					results.append('\n');
+				}
+				System.out.print(results);
+				btree.close();
+			} catch (IOException e) {
+
+				System.err.println("IO Exception");
+				if (debugLevel > 0) {
+
+					e.printStackTrace();
+				}
+
+				System.exit(2);
+			}
+			return;
+		}
+
 		// Read queryFile, search BTree for each sequence
 		try {
 
@@ -74,20 +135,71 @@ public class GeneBankSearch {
 			DataInputStream dis = new DataInputStream(fis);
 			BufferedReader br = new BufferedReader(new InputStreamReader(dis));
 			String str = "";
-			ArrayList<String> results = new ArrayList<String>();
+			long[] queries = new long[1024];
+			int count = 0;
 
-			// @TODO Read sequences and search, print/store results
+			// Read and encode all sequences
 			while ((str = br.readLine()) != null) {
 
-				results.add(btree.search(new Sequence(str, str.length())).toString());
+				str = str.trim();
+				if (str.length() != sequenceLength) {
+
+					System.err.println("Query '" + str
+							+ "' does not match the BTree's sequence length ("
+							+ sequenceLength + ").");
+					System.exit(4);
+				}
+
+				if (count == queries.length) {
+
+					queries = Arrays.copyOf(queries, count * 2);
+				}
+				queries[count++] = new Sequence(str, sequenceLength).val();
 			}
+			queries = Arrays.copyOf(queries, count);
 
-			for (String result : results) {
+			// A canonical BTree stores a sequence and its reverse complement as one
+			long[] keys = queries;
+			if (btree.isCanonical()) {
 
-				System.out.println(result);
+				keys = new long[count];
+				for (int i = 0; i < count; i++) {
+
+					keys[i] = Sequence.canonical(queries[i], sequenceLength);
+				}
+			}
+
+			// Search BTree, then print the sequences that were found in query order
+			long start = System.nanoTime();
+			int[] frequencies = search(btree, filter, keys, Math.max(1, threads));
+			long time = System.nanoTime() - start;
+
+			StringBuilder results = new StringBuilder();
+			for (int i = 0; i < count; i++) {
+
+				if (frequencies[i] > 0) {
+
+					results.append(Sequence.toSequence(new Sequence(queries[i],
+							sequenceLength)));
+					results.append(": ");
+					results.append(frequencies[i]);
+					results.append('\n');
+				}
+			}
+			System.out.print(results);
+
+			if (threads > 0) {
+
+				System.err.printf("%d queries, %d threads, %.1f ms, %.0f queries/s%n",
+						count, threads, time / 1e6, count / (time / 1e9));
 			}
 
 			dis.close();
+			btree.close();
+			if (filter != null) {
+
+				filter.close();
+			}
 		} catch (FileNotFoundException e) {
 
 			System.err
@@ -110,4 +222,114 @@ public class GeneBankSearch {
 			System.exit(2);
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Looks up the frequency of every query. Queries that are not in the
+	 * Bloom filter of the tree are not searched, their frequency is 0.
+	 * @param btree - tree or dense index to search
+	 * @param filter - filter of the tree, null to search every query
+	 * @param queries - encoded sequences
+	 * @param threads - number of threads
+	 * @return frequency of every query, 0 if it was not found
+	 * @throws IOException
+	 */
+	static int[] search(KmerIndex btree, BloomFilter filter, long[] queries,
+			int threads) throws IOException {
+
+		if (filter == null) {
+
+			return search(btree, queries, threads);
+		}
+
+		long[] candidates = new long[queries.length];
+		int[] positions = new int[queries.length];
+		int count = 0;
+		for (int i = 0; i < queries.length; i++) {
+
+			if (filter.mightContain(queries[i])) {
+
+				candidates[count] = queries[i];
+				positions[count++] = i;
+			}
+		}
+
+		int[] found = search(btree, Arrays.copyOf(candidates, count), threads);
+		int[] frequencies = new int[queries.length];
+		for (int i = 0; i < count; i++) {
+
+			frequencies[positions[i]] = found[i];
+		}
+		return frequencies;
+	}
+
+	/**
+	 * Looks up the frequency of every query. The queries are sorted and
+	 * duplicates removed, so that the tree is walked once in key order and
+	 * every node is read at most once per thread. The sorted queries are split
+	 * into one contiguous range per thread, and all threads read the same
+	 * mapped index.
+	 * @param btree - tree or dense index to search
+	 * @param queries - encoded sequences
+	 * @param threads - number of threads
+	 * @return frequency of every query, 0 if it was not found
+	 * @throws IOException
+	 */
+	static int[] search(final KmerIndex btree, long[] queries, int threads)
+			throws IOException {
+
+		if (threads == 1) {
+
+			return btree.searchBatch(queries);
+		}
+
+		final long[] sorted = queries.clone();
+		Arrays.sort(sorted);
+		int unique = 0;
+		for (int i = 0; i < sorted.length; i++) {
+
+			if (unique == 0 || sorted[i] != sorted[unique - 1]) {
+
+				sorted[unique++] = sorted[i];
+			}
+		}
+		final int[] found = new int[unique];
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int t = 0; t < threads; t++) {
+
+				final int from = (int) ((long) unique * t / threads);
+				final int to = (int) ((long) unique * (t + 1) / threads);
+				futures.add(executor.submit(new Runnable() {
+					public void run() {
+						btree.searchSorted(sorted, from, to, found);
+					}
+				}));
+			}
+
+			for (Future<?> future : futures) {
+
+				future.get();
+			}
+		} catch (InterruptedException e) {
+
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while searching", e);
+		} catch (ExecutionException e) {
+
+			throw new IOException(e.getCause());
+		} finally {
+
+			executor.shutdown();
+		}
+
+		int[] frequencies = new int[queries.length];
+		for (int i = 0; i < queries.length; i++) {
+
+			frequencies[i] = found[Arrays.binarySearch(sorted, 0, unique, queries[i])];
+		}
+		return frequencies;
+	}
+}
@@ -0,0 +1,259 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the sequences of many GBK files in parallel, so that they can be
+ * bulk loaded into one BTree.
+ *
+ * The ORIGIN sections of every file are found first and split into chunks of
+ * about chunkSize bytes, so that a single large section is parsed by several
+ * threads (see GeneBankParser.parse(FileChannel, ...)). Every worker thread
+ * takes the next chunk that has not been parsed yet and counts its
+ * sequences in its own LongIntHashMaps, one per partition. The
+ * partitions split the key space into ranges by the first bases of a
+ * sequence, so afterwards every partition can be merged across the threads
+ * and sorted independently, and appending the partitions in order yields
+ * all sequences in increasing order.
+ */
+public class KmerCounter {
+
+	/**
+	 * Number of partitions is 2^PARTITION_BITS, fewer for short sequences.
+	 */
+	private final static int PARTITION_BITS = 8;
+
+	/**
+	 * Default chunk size, 4 MB.
+	 */
+	public final static int CHUNK_SIZE = 1 << 22;
+
+	private int sequenceLength;
+	private int threads;
+	private long chunkSize;
+	private boolean canonical;
+	private int shift;
+	private int partitionCount;
+
+	/**
+	 * Sorted sequences and their frequencies of every partition.
+	 */
+	private long[][] keys;
+	private int[][] frequencies;
+
+	/**
+	 * Creates a counter for sequences of the specified length.
+	 * @param sequenceLength - length of the sequences
+	 * @param threads - number of worker threads
+	 */
+	public KmerCounter(int sequenceLength, int threads) {
+		this(sequenceLength, threads, CHUNK_SIZE);
+	}
+
+	/**
+	 * Creates a counter for sequences of the specified length.
+	 * @param sequenceLength - length of the sequences
+	 * @param threads - number of worker threads
+	 * @param chunkSize - number of bytes parsed by one task
+	 */
+	public KmerCounter(int sequenceLength, int threads, long chunkSize) {
+		this(sequenceLength, threads, chunkSize, false);
+	}
+
+	/**
+	 * Creates a counter for sequences of the specified length.
+	 * @param sequenceLength - length of the sequences
+	 * @param threads - number of worker threads
+	 * @param chunkSize - number of bytes parsed by one task
+	 * @param canonical - true to count the canonical form of every sequence
+	 */
+	public KmerCounter(int sequenceLength, int threads, long chunkSize,
+			boolean canonical) {
+		this.sequenceLength = sequenceLength;
+		this.threads = threads;
+		this.chunkSize = chunkSize;
+		this.canonical = canonical;
+
+		int bits = Math.min(PARTITION_BITS, 2 * sequenceLength);
+		this.shift = 2 * sequenceLength - bits;
+		this.partitionCount = 1 << bits;
+	}
+
+	/**
+	 * Counts the sequences of all files.
+	 * @param gbkFiles - GBK files
+	 * @throws IOException
+	 */
+	public void count(final List<String> gbkFiles) throws IOException {
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			// Find the sections of every file
+			List<Future<long[]>> scanned = new ArrayList<Future<long[]>>();
+			for (final String gbkFile : gbkFiles) {
+				scanned.add(executor.submit(new Callable<long[]>() {
+					public long[] call() throws IOException {
+						return GeneBankParser.sections(gbkFile);
+					}
+				}));
+			}
+
+			final List<Chunk> chunks = new ArrayList<Chunk>();
+			for (int f = 0; f < gbkFiles.size(); f++) {
+				long[] sections = get(scanned.get(f));
+				for (int s = 0; s < sections.length; s += 2) {
+					long end = sections[s + 1];
+					for (long from = sections[s]; from < end; from += chunkSize) {
+						chunks.add(new Chunk(gbkFiles.get(f), from, Math.min(end, from
+								+ chunkSize), end));
+					}
+				}
+			}
+
+			// Parse: every thread counts into its own partitions
+			final AtomicInteger next = new AtomicInteger();
+			List<Future<LongIntHashMap[]>> parsed = new ArrayList<Future<LongIntHashMap[]>>();
+			for (int t = 0; t < threads; t++) {
+				parsed.add(executor.submit(new Callable<LongIntHashMap[]>() {
+					public LongIntHashMap[] call() throws IOException {
+						final LongIntHashMap[] maps = new LongIntHashMap[partitionCount];
+						for (int p = 0; p < partitionCount; p++) {
+							maps[p] = new LongIntHashMap();
+						}
+
+						SequenceSink sink = new SequenceSink() {
+							public void add(long sequence) {
+								maps[(int) (sequence >>> shift)].add(sequence, 1);
+							}
+						};
+
+						int i;
+						while ((i = next.getAndIncrement()) < chunks.size()) {
+							chunks.get(i).parse(sink);
+						}
+						return maps;
+					}
+				}));
+			}
+
+			final List<LongIntHashMap[]> maps = new ArrayList<LongIntHashMap[]>();
+			for (Future<LongIntHashMap[]> future : parsed) {
+				maps.add(get(future));
+			}
+
+			// Merge and sort every partition
+			keys = new long[partitionCount][];
+			frequencies = new int[partitionCount][];
+			List<Future<?>> merged = new ArrayList<Future<?>>();
+			for (int p = 0; p < partitionCount; p++) {
+				final int partition = p;
+				merged.add(executor.submit(new Callable<Object>() {
+					public Object call() {
+						LongIntHashMap map = maps.get(0)[partition];
+						for (int t = 1; t < maps.size(); t++) {
+							map.addAll(maps.get(t)[partition]);
+							maps.get(t)[partition] = null;
+						}
+						maps.get(0)[partition] = null;
+
+						frequencies[partition] = new int[map.size()];
+						keys[partition] = map.sortedKeys(frequencies[partition]);
+						return null;
+					}
+				}));
+			}
+			for (Future<?> future : merged) {
+				get(future);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Returns the number of distinct sequences counted.
+	 * @return number of distinct sequences
+	 */
+	public long distinctCount() {
+		long count = 0;
+		for (long[] partition : keys) {
+			count += partition.length;
+		}
+		return count;
+	}
+
+	/**
+	 * Appends every distinct sequence with its frequency, in increasing order,
+	 * to the loader. The loader must have been created with distinctCount()
+	 * keys.
+	 * @param loader - loader to append to
+	 * @throws IOException
+	 */
+	public void load(BTreeBulkLoader loader) throws IOException {
+		for (int p = 0; p < partitionCount; p++) {
+			for (int i = 0; i < keys[p].length; i++) {
+				loader.append(keys[p][i], frequencies[p][i]);
+			}
+		}
+	}
+
+	/**
+	 * Byte range of an ORIGIN section parsed by one task.
+	 */
+	private class Chunk {
+		private String gbkFile;
+		private long from;
+		private long to;
+		private long end;
+
+		/**
+		 * @param gbkFile - GBK file
+		 * @param from - first byte of the chunk
+		 * @param to - byte after the chunk
+		 * @param end - end of the section
+		 */
+		public Chunk(String gbkFile, long from, long to, long end) {
+			this.gbkFile = gbkFile;
+			this.from = from;
+			this.to = to;
+			this.end = end;
+		}
+
+		public void parse(SequenceSink sink) throws IOException {
+			FileInputStream in = new FileInputStream(gbkFile);
+			try {
+				GeneBankParser.parse(in.getChannel(), from, to, end, sequenceLength,
+						canonical, sink);
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Waits for a task, rethrowing its IOException or unchecked exception.
+	 */
+	private static <V> V get(Future<V> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while counting sequences", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+}
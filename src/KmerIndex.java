@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Read-only index of the frequencies of the sequences of one length, as
+ * written by GeneBankCreateBTree. A file holds either a BTree (MappedBTree)
+ * or, for short sequences, a dense array of every frequency (DenseIndex).
+ * open() tells them apart by the first 8 bytes of the file, which are the
+ * degree of a BTree and DenseIndex.MAGIC for a dense array.
+ */
+public interface KmerIndex {
+
+	/**
+	 * Returns the frequency of the sequence, 0 if it is not in the index.
+	 * @param key - encoded sequence (see Sequence.val())
+	 * @return frequency
+	 */
+	public int frequency(long key);
+
+	/**
+	 * Returns the frequency of every sequence.
+	 * @param keys - encoded sequences, in any order
+	 * @return frequency of every sequence, in the order of keys
+	 */
+	public int[] searchBatch(long[] keys);
+
+	/**
+	 * Looks up a range of sorted sequences.
+	 * @param keys - encoded sequences, strictly increasing from from to to
+	 * @param from - index of the first sequence
+	 * @param to - index after the last sequence
+	 * @param frequencies - receives the frequency of every sequence, at the
+	 *          same index
+	 */
+	public void searchSorted(long[] keys, int from, int to, int[] frequencies);
+
+	/**
+	 * Returns an iterator over all sequences from lo to hi, inclusive, in
+	 * increasing order.
+	 * @param lo - first encoded sequence
+	 * @param hi - last encoded sequence
+	 * @return iterator over the sequences and their frequencies
+	 */
+	public SequenceIterator rangeScan(long lo, long hi);
+
+	/**
+	 * Returns an iterator over all sequences that start with the prefix, in
+	 * increasing order.
+	 * @param prefix - first bases, at most the sequence length
+	 * @return iterator over the sequences and their frequencies
+	 */
+	public SequenceIterator prefixScan(String prefix);
+
+	/**
+	 * Returns the n most frequent sequences.
+	 * @param n - number of sequences
+	 * @return the most frequent sequences
+	 * @throws IOException
+	 */
+	public TopSequences top(int n) throws IOException;
+
+	public int getSequenceLength();
+
+	/**
+	 * Returns true if the index holds canonical sequences (see
+	 * Sequence.canonical()).
+	 * @return true for canonical sequences
+	 */
+	public boolean isCanonical();
+
+	/**
+	 * Closes the file of the index.
+	 * @throws IOException
+	 */
+	public void close() throws IOException;
+
+	/**
+	 * Opens an index file written by any engine of GeneBankCreateBTree.
+	 * @param indexFile - BTree or dense index file
+	 * @return mapped index
+	 * @throws IOException
+	 */
+	public static KmerIndex open(String indexFile) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+		long magic;
+		try {
+			magic = file.length() >= 8 ? file.readLong() : 0;
+		} finally {
+			file.close();
+		}
+		if (magic == DenseIndex.MAGIC) {
+			return new DenseIndex(indexFile);
+		}
+		return new MappedBTree(indexFile);
+	}
+}
@@ -0,0 +1,1120 @@
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * BTree specialized for encoded sequences (see Sequence.val()). Nodes keep
+ * keys in a long[], frequencies in an int[] and child offsets in a long[],
+ * so no Sequence or TreeObject is created and nothing is boxed while
+ * inserting or searching. Uses the same file format as BTree, which remains
+ * the generic fallback for other key types.
+ *
+ * Existing files are opened read-only, to search, scan, copy and print
+ * them. Only a tree created by the constructor that takes a degree can be
+ * inserted into.
+ *
+ * A LongBTree is used by one thread at a time, unless it is created in
+ * concurrent mode. Then any number of threads may call insert(), frequency()
+ * and searchBatch() at the same time. A thread latches a child before it
+ * releases the parent (latch crabbing). Full nodes are split on the way
+ * down, so an insert holds at most the latches of a node and its child.
+ * Latches come from a fixed table and nodes are not cached, every node is
+ * read from and written to the file while it is latched, so memory use does
+ * not grow with the tree. write() must not run concurrently with insert().
+ */
+public class LongBTree implements SequenceSink {
+
+	private int degree;
+	private int sequenceLength;
+	private int blockSize;
+	private boolean bplus;
+	private boolean canonical;
+	private long buildId;
+	private Node root;
+
+	private final static int PINNED_DEPTH = 2;
+	/**
+	 * Every internal node has at least two children and the node count is an
+	 * int, so a tree has at most 32 levels.
+	 */
+	private final static int LATCH_LEVELS = 32;
+	private final static int LATCH_STRIPES = 64;
+
+	private RandomAccessFile file;
+	/**
+	 * False for an existing file, which is opened read-only.
+	 */
+	private boolean writable;
+	/**
+	 * True if nodes or metadata changed since the last write().
+	 */
+	private boolean modified;
+	private int nodeCount;
+	private byte[] page;
+	private ByteBuffer pageBuffer;
+	/**
+	 * Nodes by byte offset, null if caching is disabled.
+	 */
+	private Cache<Node> cache;
+
+	/**
+	 * Node latches in concurrent mode, LATCH_STRIPES per level, null
+	 * otherwise. Levels are counted from the leaves, so the level of a node
+	 * does not change when the root splits. Nodes on the same level share a
+	 * latch if their block numbers are equal modulo LATCH_STRIPES.
+	 */
+	private ReentrantLock[] latches;
+	/**
+	 * Held while the root is read or replaced in concurrent mode.
+	 */
+	private ReentrantLock rootLatch;
+	/**
+	 * Page buffer of every thread in concurrent mode, null otherwise.
+	 */
+	private ThreadLocal<ByteBuffer> pages;
+
+	private LongAdder insertCount = new LongAdder();
+	private LongAdder nodeVisits = new LongAdder();
+
+	/**
+	 * Creates a new, empty BTree stored in the specified file, using blocks of
+	 * the specified size and keeping up to cacheSize nodes in a cache with the
+	 * specified eviction policy. Any existing file is overwritten.
+	 * @param degree - degree of the tree, 0 for the optimal degree
+	 * @param sequenceLength - length of the stored sequences
+	 * @param blockSize - size of a block, a power of 2 between BLOCK_SIZE and
+	 *          MAX_BLOCK_SIZE
+	 * @param cacheSize - number of cached nodes, 0 to disable caching
+	 * @param policy - eviction policy of the cache
+	 * @param bTreeFile - file to store the tree in
+	 * @throws IOException
+	 */
+	public LongBTree(int degree, int sequenceLength, int blockSize,
+			int cacheSize, Cache.Policy policy, String bTreeFile) throws IOException {
+		this(degree, sequenceLength, blockSize, cacheSize, policy, bTreeFile,
+				false);
+	}
+
+	private LongBTree(int degree, int sequenceLength, int blockSize,
+			int cacheSize, Cache.Policy policy, String bTreeFile, boolean concurrent)
+			throws IOException {
+
+		if (!BTree.isValidBlockSize(blockSize)) {
+
+			System.err.println("Invalid block size. Must be a power of 2 between "
+					+ BTree.BLOCK_SIZE + " and " + BTree.MAX_BLOCK_SIZE + ".");
+			System.exit(3);
+		}
+
+		if (degree == 0) {
+			degree = BTree.optimalDegree(blockSize);
+		}
+
+		this.degree = degree;
+		this.sequenceLength = sequenceLength;
+		this.blockSize = blockSize;
+
+		if (degree < 1) {
+
+			System.err.println("Invalid degree. Must be a positive integer.");
+			System.exit(3);
+		}
+
+		if (BTree.nodeSize(degree) > blockSize) {
+
+			System.err.println("Invalid degree. A node of degree " + degree
+					+ " does not fit in a " + blockSize + " byte block.");
+			System.exit(3);
+		}
+
+		this.page = new byte[blockSize];
+		this.pageBuffer = ByteBuffer.wrap(page);
+
+		File f = new File(bTreeFile);
+		if (f.exists()) {
+			f.delete();
+		}
+		this.file = new RandomAccessFile(f, "rw");
+		this.writable = true;
+		this.modified = true;
+		this.buildId = BTree.newBuildId();
+		this.nodeCount = 0;
+		if (concurrent) {
+			this.latches = new ReentrantLock[LATCH_LEVELS * LATCH_STRIPES];
+			for (int i = 0; i < latches.length; i++) {
+				latches[i] = new ReentrantLock();
+			}
+			this.rootLatch = new ReentrantLock();
+			this.pages = new ThreadLocal<ByteBuffer>() {
+				protected ByteBuffer initialValue() {
+					return ByteBuffer.allocate(LongBTree.this.blockSize);
+				}
+			};
+		} else {
+			this.cache = createCache(cacheSize, policy);
+		}
+
+		this.root = new Node();
+		this.root.save();
+		writeMetadata();
+	}
+
+	/**
+	 * Creates a new, empty BTree in concurrent mode, which allows several
+	 * threads to insert and search at the same time. Nodes are not cached.
+	 * Any existing file is overwritten.
+	 * @param degree - degree of the tree, 0 for the optimal degree
+	 * @param sequenceLength - length of the stored sequences
+	 * @param blockSize - size of a block, a power of 2 between BLOCK_SIZE and
+	 *          MAX_BLOCK_SIZE
+	 * @param bTreeFile - file to store the tree in
+	 * @return concurrent BTree
+	 * @throws IOException
+	 */
+	public static LongBTree concurrent(int degree, int sequenceLength,
+			int blockSize, String bTreeFile) throws IOException {
+		return new LongBTree(degree, sequenceLength, blockSize, 0,
+				Cache.Policy.LRU, bTreeFile, true);
+	}
+
+	/**
+	 * Opens an existing BTree file for reading.
+	 * @param bTreeFile - file the tree is stored in
+	 * @throws IOException
+	 */
+	public LongBTree(String bTreeFile) throws IOException {
+		this(bTreeFile, 0, Cache.Policy.LRU);
+	}
+
+	/**
+	 * Opens an existing BTree file for reading, keeping up to cacheSize nodes
+	 * in a cache with the specified eviction policy.
+	 * @param bTreeFile - file the tree is stored in
+	 * @param cacheSize - number of cached nodes, 0 to disable caching
+	 * @param policy - eviction policy of the cache
+	 * @throws IOException
+	 */
+	public LongBTree(String bTreeFile, int cacheSize, Cache.Policy policy)
+			throws IOException {
+
+		this.file = new RandomAccessFile(bTreeFile, "r");
+
+		file.seek(0);
+		this.degree = (int) file.readLong();
+		long rootOffset = file.readLong();
+		this.nodeCount = file.readInt();
+		this.sequenceLength = file.readInt();
+		this.blockSize = file.readInt();
+		int layout = file.readInt();
+		if (layout == BTree.LAYOUT_COMPRESSED) {
+			file.close();
+			throw new IOException("Compressed layout is not supported, open "
+					+ bTreeFile + " with MappedBTree");
+		}
+		this.bplus = layout == BTree.LAYOUT_BPLUS;
+		this.canonical = file.readInt() == 1;
+
+		this.page = new byte[blockSize];
+		this.pageBuffer = ByteBuffer.wrap(page);
+		this.cache = createCache(cacheSize, policy);
+		this.root = new Node(rootOffset);
+	}
+
+	/**
+	 * Creates a node cache that writes evicted dirty nodes to disk.
+	 * @param cacheSize - number of cached nodes
+	 * @param policy - eviction policy
+	 * @return cache, null if cacheSize is 0
+	 */
+	private Cache<Node> createCache(int cacheSize, Cache.Policy policy) {
+
+		if (cacheSize < 1) {
+			return null;
+		}
+
+		return new Cache<Node>(cacheSize, policy, new Cache.WriteBack<Node>() {
+			public void write(long key, Node node) throws IOException {
+				node.write();
+			}
+		});
+	}
+
+	public int getDegree() {
+		return degree;
+	}
+
+	public int getSequenceLength() {
+		return sequenceLength;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Returns true if the tree holds canonical sequences, the smaller of every
+	 * sequence and its reverse complement (see Sequence.canonical()).
+	 * @return true for canonical sequences
+	 */
+	public boolean isCanonical() {
+		return canonical;
+	}
+
+	/**
+	 * Marks the tree as holding canonical sequences. The caller inserts the
+	 * canonical form of every sequence (see GeneBankParser), the flag is
+	 * stored in the metadata so that searches canonicalize their queries.
+	 * @param canonical - true for canonical sequences
+	 * @throws IOException
+	 */
+	public void setCanonical(boolean canonical) throws IOException {
+		if (!writable) {
+			throw new IllegalStateException("Cannot change a BTree opened for reading");
+		}
+		this.canonical = canonical;
+		writeMetadata();
+	}
+
+	/**
+	 * Returns the node cache, which records the number of references and hits.
+	 * @return cache, null if caching is disabled
+	 */
+	public Cache<?> getCache() {
+		return cache;
+	}
+
+	/**
+	 * Returns the number of nodes visited by all calls to insert.
+	 * @return number of node visits
+	 */
+	public long getNodeVisits() {
+		return nodeVisits.sum();
+	}
+
+	/**
+	 * Returns the number of calls to insert.
+	 * @return number of inserts
+	 */
+	public long getInsertCount() {
+		return insertCount.sum();
+	}
+
+	/**
+	 * Returns the number of nodes on a path from the root to a leaf, which is
+	 * the number of blocks read by an unsuccessful search.
+	 * @return height of the tree
+	 * @throws IOException
+	 */
+	public int getHeight() throws IOException {
+		int height = 1;
+		Node node = root;
+		while (!node.leaf) {
+			node = node.getChild(0);
+			height++;
+		}
+		return height;
+	}
+
+	/**
+	 * Adds one occurrence of the sequence.
+	 * @param sequence - encoded sequence
+	 * @throws IOException
+	 */
+	public void add(long sequence) throws IOException {
+		insert(sequence);
+	}
+
+	/**
+	 * Inserts the key, or increments its frequency if it is already in the
+	 * tree, in a single descent from the root.
+	 * @param key - encoded sequence
+	 * @throws IOException
+	 */
+	public void insert(long key) throws IOException {
+
+		if (!writable) {
+			throw new IllegalStateException("Cannot insert into a BTree opened for reading");
+		}
+		insertCount.increment();
+		modified = true;
+
+		lockRoot();
+		Node r = root;
+		latch(r);
+		if (r.isFull() && r.indexOf(key) < 0) {
+			Node s = new Node();
+			this.root = s;
+			s.leaf = false;
+			s.level = r.level + 1;
+			if (cache != null) {
+				// Every node moves one level down
+				cache.unpinAll();
+			}
+
+			s.children[0] = r.offset;
+			s.splitChild(0, r);
+			if (latches == null) {
+				writeMetadata();
+			}
+			unlatch(r);
+			r = s;
+			latch(r);
+		}
+		unlockRoot();
+		r.insert(key);
+	}
+
+	/**
+	 * Returns the frequency of the key.
+	 * @param key - encoded sequence
+	 * @return frequency, 0 if the key is not in the tree
+	 * @throws IOException
+	 */
+	public int frequency(long key) throws IOException {
+
+		lockRoot();
+		Node node = root;
+		latch(node);
+		unlockRoot();
+		while (true) {
+			int i = node.floorIndex(key);
+
+			// If the key was found (in a leaf for B+Trees)
+			if (i >= 0 && key == node.keys[i] && (node.leaf || !bplus)) {
+				int frequency = node.frequencies[i];
+				unlatch(node);
+				return frequency;
+
+				// If there are no more children to search
+			} else if (node.leaf) {
+				unlatch(node);
+				return 0;
+			}
+			Node child = node.latchChild(i + 1);
+			unlatch(node);
+			node = child;
+		}
+	}
+
+	/**
+	 * Returns the frequency of every key. The keys are sorted and duplicates
+	 * removed, then the tree is walked once in key order, so every node on
+	 * the paths to the keys is read once per batch.
+	 * @param keys - encoded sequences, in any order
+	 * @return frequency of every key, in the order of keys
+	 * @throws IOException
+	 */
+	public int[] searchBatch(long[] keys) throws IOException {
+
+		long[] sorted = keys.clone();
+		Arrays.sort(sorted);
+		int unique = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (unique == 0 || sorted[i] != sorted[unique - 1]) {
+				sorted[unique++] = sorted[i];
+			}
+		}
+
+		int[] found = new int[unique];
+		if (unique > 0) {
+			lockRoot();
+			Node r = root;
+			latch(r);
+			unlockRoot();
+			r.searchSorted(sorted, 0, unique, found);
+		}
+
+		int[] frequencies = new int[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			frequencies[i] = found[Arrays.binarySearch(sorted, 0, unique, keys[i])];
+		}
+		return frequencies;
+	}
+
+	/**
+	 * Returns an iterator over all keys from lo to hi, inclusive, in
+	 * increasing order. The iterator descends to lo once and then walks the
+	 * tree in order, reading nodes as it goes, so the result is never held in
+	 * memory. The tree must not be changed while the iterator is used.
+	 * @param lo - first encoded sequence
+	 * @param hi - last encoded sequence
+	 * @return iterator over the keys and their frequencies
+	 * @throws IOException
+	 */
+	public SequenceIterator rangeScan(long lo, long hi) throws IOException {
+		return new Scan(lo, hi);
+	}
+
+	/**
+	 * Returns an iterator over all keys that start with the prefix, in
+	 * increasing order. The tree must not be changed while the iterator is
+	 * used.
+	 * @param prefix - first bases, at most the sequence length
+	 * @return iterator over the keys and their frequencies
+	 * @throws IOException
+	 */
+	public SequenceIterator prefixScan(String prefix) throws IOException {
+		long[] range = Sequence.prefixRange(prefix, sequenceLength);
+		return new Scan(range[0], range[1]);
+	}
+
+	/**
+	 * Returns the n most frequent sequences. All sequences are scanned in
+	 * order through a bounded heap, so only n of them are held in memory.
+	 * @param n - number of sequences
+	 * @return the most frequent sequences
+	 * @throws IOException
+	 */
+	public TopSequences top(int n) throws IOException {
+		TopSequences top = new TopSequences(n);
+		top.addAll(rangeScan(0, Long.MAX_VALUE));
+		return top;
+	}
+
+	/**
+	 * Writes the root, all cached nodes that changed and the metadata to disk.
+	 * Without a cache every other node is written as soon as it changes. Must
+	 * not run concurrently with insert().
+	 * Does nothing if the tree did not change since the last write.
+	 * @throws IOException
+	 */
+	public void write() throws IOException {
+
+		if (!modified) {
+			return;
+		}
+		modified = false;
+		buildId = BTree.newBuildId();
+
+		root.save();
+		if (cache != null) {
+			cache.flush();
+		}
+		writeMetadata();
+	}
+
+	/**
+	 * Writes a compact copy of the tree to another file, with the same
+	 * degree, block size, layout and flags. The keys are streamed in order
+	 * into a BTreeBulkLoader, so the copy has nearly full nodes and memory
+	 * use does not depend on the size of the tree. This file is not changed.
+	 * @param bTreeFile - file to write the copy to, overwritten if it exists
+	 * @throws IOException
+	 */
+	public void write(String bTreeFile) throws IOException {
+
+		long keyCount = 0;
+		SequenceIterator keys = rangeScan(0, Long.MAX_VALUE);
+		while (keys.next()) {
+			keyCount++;
+		}
+
+		BTreeBulkLoader loader = new BTreeBulkLoader(degree, sequenceLength,
+				blockSize, bTreeFile, keyCount, bplus ? BTree.LAYOUT_BPLUS
+						: BTree.LAYOUT_BTREE);
+		loader.setCanonical(canonical);
+		loader.appendAll(rangeScan(0, Long.MAX_VALUE));
+		loader.finish();
+	}
+
+	/**
+	 * Writes the tree to disk, if it changed, and closes the BTree file.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+
+		write();
+		file.close();
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		try {
+			sb.append(root.toString());
+			sb.append(" (head)\n");
+			build(sb, root, 0, "head", 0, true);
+		} catch (IOException e) {
+			return "BTree (unreadable: " + e.getMessage() + ")";
+		}
+		return sb.toString();
+	}
+
+	private void build(StringBuilder sb, Node node, int height,
+			String prevLevel, int child, boolean first) throws IOException {
+		String thisLevel = "";
+		for (int i = 0; i < height; i++) {
+			sb.append("  ");
+		}
+		if (!first) {
+			sb.append("--> ");
+			sb.append(node.toString());
+			sb.append("(");
+			sb.append(prevLevel);
+			sb.append(".c" + child);
+			sb.append(")\n");
+			thisLevel = prevLevel + ".c" + child;
+		} else {
+			thisLevel = prevLevel;
+		}
+		if (!node.leaf) {
+			for (int i = 0; i <= node.n; i++) {
+				build(sb, node.getChild(i), height + 1, thisLevel, i + 1, false);
+			}
+		}
+	}
+
+	/**
+	 * Writes degree, root offset, number of nodes, sequence length, block
+	 * size, layout, the canonical flag and the build id to the metadata block
+	 * at the start of the file.
+	 * @throws IOException
+	 */
+	private void writeMetadata() throws IOException {
+		file.seek(0);
+		file.writeLong(degree);
+		file.writeLong(root.offset);
+		file.writeInt(nodeCount);
+		file.writeInt(sequenceLength);
+		file.writeInt(blockSize);
+		file.writeInt(bplus ? BTree.LAYOUT_BPLUS : BTree.LAYOUT_BTREE);
+		file.writeInt(canonical ? 1 : 0);
+		file.writeLong(buildId);
+	}
+
+	/**
+	 * Allocates a block at the end of the file for a new node.
+	 * @return byte offset of the new node
+	 */
+	private synchronized long allocateNode() {
+		nodeCount++;
+		return (long) nodeCount * blockSize;
+	}
+
+	/**
+	 * Holds the root latch in concurrent mode.
+	 */
+	private void lockRoot() {
+		if (rootLatch != null) {
+			rootLatch.lock();
+		}
+	}
+
+	private void unlockRoot() {
+		if (rootLatch != null) {
+			rootLatch.unlock();
+		}
+	}
+
+	/**
+	 * Acquires the latch of the node in concurrent mode. Every thread latches
+	 * nodes from the root down and holds at most one latch per level, so
+	 * threads cannot deadlock on a latch shared by two nodes.
+	 * @param node - node
+	 */
+	private void latch(Node node) {
+		if (latches != null) {
+			latchOf(node.offset, node.level).lock();
+		}
+	}
+
+	private void unlatch(Node node) {
+		if (latches != null) {
+			latchOf(node.offset, node.level).unlock();
+		}
+	}
+
+	private ReentrantLock latchOf(long offset, int level) {
+		int stripe = (int) (offset / blockSize) & (LATCH_STRIPES - 1);
+		return latches[level * LATCH_STRIPES + stripe];
+	}
+
+	/**
+	 * Returns the node at the specified byte offset, from the cache if
+	 * possible. Nodes up to PINNED_DEPTH are pinned in the cache.
+	 * @param offset - byte offset of the node
+	 * @param depth - depth of the node
+	 * @return node
+	 * @throws IOException
+	 */
+	private Node readNode(long offset, int depth) throws IOException {
+
+		if (cache == null) {
+			return new Node(offset);
+		}
+
+		Node node = cache.getObject(offset);
+		if (node == null) {
+			node = new Node(offset);
+			cache.addObject(offset, node);
+		}
+		if (depth <= PINNED_DEPTH) {
+			cache.pin(offset);
+		}
+		return node;
+	}
+
+	/**
+	 * Binary search for the last of the first n keys that is less than or
+	 * equal to the key. Package-private for NodeSearchTarget.
+	 * @param keys - sorted keys of a node
+	 * @param n - number of keys
+	 * @param key - key to find
+	 * @return index of the last key <= key, -1 if every key is greater
+	 */
+	static int floorIndex(long[] keys, int n, long key) {
+		int low = 0, high = n - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (keys[mid] <= key) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return high;
+	}
+
+	/**
+	 * In-order walk from lo to hi. The stack holds the path from the root to
+	 * the current node, with the index of the next key of every node on it.
+	 * Below the top of the stack, the child before that key has already been
+	 * walked. In the B+Tree layout the stack only holds the current leaf,
+	 * which is replaced by the next leaf when all of its keys were read.
+	 */
+	private class Scan implements SequenceIterator {
+		private long hi;
+		private Node[] nodes = new Node[64];
+		private int[] indexes = new int[64];
+		private int depth;
+		private long sequence;
+		private int frequency;
+
+		public Scan(long lo, long hi) throws IOException {
+			this.hi = hi;
+
+			// Descend to the first key >= lo
+			Node node = root;
+			while (true) {
+				int i = node.floorIndex(lo);
+				boolean found = i >= 0 && lo == node.keys[i]
+						&& (node.leaf || !bplus);
+				if (!found) {
+					i++;
+				}
+				if (node.leaf || !bplus) {
+					push(node, i);
+				}
+				if (found || node.leaf) {
+					break;
+				}
+				node = node.getChild(i);
+			}
+		}
+
+		public boolean next() throws IOException {
+			while (depth > 0) {
+				Node node = nodes[depth - 1];
+				int i = indexes[depth - 1];
+
+				if (i >= node.n) {
+					if (bplus && node.children[0] != 0) {
+						Node next = readNode(node.children[0], node.depth);
+						next.depth = node.depth;
+						nodes[depth - 1] = next;
+						indexes[depth - 1] = 0;
+					} else {
+						nodes[--depth] = null;
+					}
+					continue;
+				}
+
+				if (node.keys[i] > hi) {
+					depth = 0;
+					return false;
+				}
+				sequence = node.keys[i];
+				frequency = node.frequencies[i];
+				indexes[depth - 1] = i + 1;
+
+				// Walk the child after the key next, from its smallest key
+				if (!node.leaf) {
+					Node child = node.getChild(i + 1);
+					push(child, 0);
+					while (!child.leaf) {
+						child = child.getChild(0);
+						push(child, 0);
+					}
+				}
+				return true;
+			}
+			return false;
+		}
+
+		public long sequence() {
+			return sequence;
+		}
+
+		public int frequency() {
+			return frequency;
+		}
+
+		private void push(Node node, int index) {
+			if (depth == nodes.length) {
+				nodes = Arrays.copyOf(nodes, depth * 2);
+				indexes = Arrays.copyOf(indexes, depth * 2);
+			}
+			nodes[depth] = node;
+			indexes[depth++] = index;
+		}
+	}
+
+	private class Node {
+		private boolean leaf;
+		/**
+		 * Byte offset of this node in the BTree file.
+		 */
+		private long offset;
+		/**
+		 * Distance from the root, set whenever the node is reached from its
+		 * parent.
+		 */
+		private int depth;
+		/**
+		 * Distance from the leaves, 0 for a leaf. Only kept in trees created
+		 * by a constructor, for the latches of concurrent mode.
+		 */
+		private int level;
+		/**
+		 * Number of keys.
+		 */
+		private int n;
+		private long[] keys;
+		private int[] frequencies;
+		/**
+		 * Byte offsets of the children.
+		 */
+		private long[] children;
+
+		public Node() {
+			this.leaf = true;
+
+			this.n = 0;
+
+			this.keys = new long[degree * 2 - 1];
+			this.frequencies = new int[degree * 2 - 1];
+			this.children = new long[degree * 2];
+
+			this.offset = allocateNode();
+		}
+
+		/**
+		 * Reads the node at the specified byte offset from disk.
+		 * @param offset - byte offset of the node
+		 * @throws IOException
+		 */
+		public Node(long offset) throws IOException {
+			this.keys = new long[degree * 2 - 1];
+			this.frequencies = new int[degree * 2 - 1];
+			this.children = new long[degree * 2];
+
+			this.offset = offset;
+			this.load();
+		}
+
+		/**
+		 * Reads the child at the specified index.
+		 * @param index - index of the child
+		 * @return child node
+		 * @throws IOException
+		 */
+		public Node getChild(int index) throws IOException {
+			Node child = readNode(children[index], this.depth + 1);
+			child.depth = this.depth + 1;
+			child.level = this.level - 1;
+			return child;
+		}
+
+		/**
+		 * Acquires the latch of the child at the specified index in concurrent
+		 * mode, then reads the child, so that it is read after any change made
+		 * by the previous holder of the latch.
+		 * @param index - index of the child
+		 * @return child node
+		 * @throws IOException
+		 */
+		public Node latchChild(int index) throws IOException {
+			if (latches != null) {
+				latchOf(children[index], this.level - 1).lock();
+			}
+			return getChild(index);
+		}
+
+		/**
+		 * Binary search for the last key that is less than or equal to the key.
+		 * @param key - key to find
+		 * @return index of the last key <= key, -1 if every key is greater
+		 */
+		public int floorIndex(long key) {
+			return LongBTree.floorIndex(keys, n, key);
+		}
+
+		/**
+		 * Looks up a range of sorted keys in the subtree of this node, reading
+		 * every node once. In concurrent mode the node must be latched by the
+		 * caller, its latch is released when the lookups are done, and the
+		 * nodes on the path to the current key stay latched.
+		 * @param keys - keys, strictly increasing from from to to
+		 * @param from - index of the first key
+		 * @param to - index after the last key
+		 * @param frequencies - receives the frequency of every key
+		 * @throws IOException
+		 */
+		public void searchSorted(long[] keys, int from, int to, int[] frequencies)
+				throws IOException {
+			int i = from;
+			while (i < to) {
+				long key = keys[i];
+				int j = floorIndex(key);
+
+				// If the key was found (in a leaf for B+Trees)
+				if (j >= 0 && key == this.keys[j] && (this.leaf || !bplus)) {
+					frequencies[i++] = this.frequencies[j];
+				} else if (this.leaf) {
+					frequencies[i++] = 0;
+				} else {
+					// All following keys below the next separator are in the same child
+					int end = to;
+					if (j + 1 < this.n) {
+						end = i + 1;
+						while (end < to && keys[end] < this.keys[j + 1]) {
+							end++;
+						}
+					}
+					Node child = latchChild(j + 1);
+					child.searchSorted(keys, i, end, frequencies);
+					i = end;
+				}
+			}
+			unlatch(this);
+		}
+
+		/**
+		 * Returns the index of the key in this node.
+		 * @param key - key to find
+		 * @return index of the key, -1 if it is not in this node
+		 */
+		public int indexOf(long key) {
+			int i = floorIndex(key);
+			if (i >= 0 && key == keys[i]) {
+				return i;
+			}
+			return -1;
+		}
+
+		/**
+		 * Splits the full child y, which is stored at the specified index.
+		 * @param index - index of the child
+		 * @param y - the child
+		 * @return the newly created right sibling of y
+		 * @throws IOException
+		 */
+		public Node splitChild(int index, Node y) throws IOException {
+			Node z = new Node();
+			z.depth = y.depth;
+			z.level = y.level;
+
+			z.leaf = y.leaf;
+			z.n = degree - 1;
+
+			System.arraycopy(y.keys, degree, z.keys, 0, degree - 1);
+			System.arraycopy(y.frequencies, degree, z.frequencies, 0, degree - 1);
+			if (!y.leaf) {
+				System.arraycopy(y.children, degree, z.children, 0, degree);
+			}
+
+			y.n = degree - 1;
+
+			System.arraycopy(this.children, index + 1, this.children, index + 2,
+					this.n - index);
+			this.children[index + 1] = z.offset;
+
+			System.arraycopy(this.keys, index, this.keys, index + 1, this.n - index);
+			System.arraycopy(this.frequencies, index, this.frequencies, index + 1,
+					this.n - index);
+			this.keys[index] = y.keys[degree - 1];
+			this.frequencies[index] = y.frequencies[degree - 1];
+			this.n = this.n + 1;
+
+			y.save();
+			z.save();
+			this.save();
+
+			return z;
+		}
+
+		/**
+		 * Inserted key assuming node is not full. If the key is found on the
+		 * way down its frequency is incremented instead. Full children are split
+		 * before descending into them, unless they contain the key. In
+		 * concurrent mode the node must be latched by the caller, its latch is
+		 * released when the insert is done.
+		 * @param key - key to insert
+		 * @throws IOException
+		 */
+		public void insert(long key) throws IOException {
+			Node node = this;
+			while (true) {
+				nodeVisits.increment();
+
+				int i = node.floorIndex(key);
+
+				// If the key was found
+				if (i >= 0 && key == node.keys[i]) {
+					node.frequencies[i]++;
+					node.save();
+					unlatch(node);
+					return;
+				} else if (node.leaf) {
+					System.arraycopy(node.keys, i + 1, node.keys, i + 2, node.n - i - 1);
+					System.arraycopy(node.frequencies, i + 1, node.frequencies, i + 2,
+							node.n - i - 1);
+					node.keys[i + 1] = key;
+					node.frequencies[i + 1] = 1;
+					node.n += 1;
+
+					node.save();
+					unlatch(node);
+					return;
+				}
+
+				i++;
+				Node child = node.latchChild(i);
+				if (child.isFull() && child.indexOf(key) < 0) {
+					// The new sibling is only reachable through the latched node
+					Node z = node.splitChild(i, child);
+					if (key > node.keys[i]) {
+						unlatch(child);
+						latch(z);
+						child = z;
+					}
+				}
+				// The child is not full, so node will not change any more
+				unlatch(node);
+				node = child;
+			}
+		}
+
+		/**
+		 * Loads node from disk.
+		 * @throws IOException
+		 */
+		private void load() throws IOException {
+			ByteBuffer buffer = pages != null ? pages.get() : pageBuffer;
+			if (pages != null) {
+				// Positional reads leave the shared file pointer alone
+				buffer.clear();
+				while (buffer.hasRemaining()) {
+					if (file.getChannel().read(buffer, offset + buffer.position()) < 0) {
+						throw new EOFException("Node at " + offset + " is truncated");
+					}
+				}
+			} else {
+				file.seek(this.offset);
+				file.readFully(page);
+			}
+			buffer.clear();
+
+			buffer.getLong();
+			this.n = buffer.getInt();
+			this.leaf = buffer.get() == 1;
+
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = buffer.getLong();
+				frequencies[i] = buffer.getInt();
+			}
+
+			for (int i = 0; i < children.length; i++) {
+				children[i] = buffer.getLong();
+			}
+		}
+
+		/**
+		 * Saves node to disk, or marks it dirty in the cache so that it is
+		 * written when it is evicted.
+		 * @throws IOException
+		 */
+		private void save() throws IOException {
+			if (cache != null) {
+				cache.addObject(this.offset, this, true);
+			} else {
+				this.write();
+			}
+		}
+
+		/**
+		 * Writes node to disk.
+		 * @throws IOException
+		 */
+		private void write() throws IOException {
+			ByteBuffer buffer = pages != null ? pages.get() : pageBuffer;
+			buffer.clear();
+
+			buffer.putLong(this.offset);
+			buffer.putInt(this.n);
+			buffer.put((byte) (this.leaf ? 1 : 0));
+
+			for (int i = 0; i < keys.length; i++) {
+				if (i < this.n) {
+					buffer.putLong(keys[i]);
+					buffer.putInt(frequencies[i]);
+				} else {
+					buffer.putLong(0L).putInt(0);
+				}
+			}
+
+			for (int i = 0; i < children.length; i++) {
+				buffer.putLong(this.leaf ? 0L : children[i]);
+			}
+
+			if (pages != null) {
+				buffer.clear();
+				while (buffer.hasRemaining()) {
+					file.getChannel().write(buffer, offset + buffer.position());
+				}
+			} else {
+				file.seek(this.offset);
+				file.write(page, 0, blockSize);
+			}
+		}
+
+		/**
+		 * Returns true if node is full, false otherwise.
+		 *
+		 * @return
+		 */
+		public boolean isFull() {
+			return this.n == (2 * degree) - 1;
+		}
+
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append("[");
+			for (int i = 0; i < n; i++) {
+				if (i > 0) {
+					sb.append(", ");
+				}
+				sb.append(Sequence.toSequence(new Sequence(keys[i], sequenceLength)));
+				sb.append(" (");
+				sb.append(frequencies[i]);
+				sb.append(")");
+			}
+			sb.append("]");
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,165 @@
+import java.util.Arrays;
+
+/**
+ * Counts of long keys in a primitive open addressing hash table. Keys are
+ * kept in a long[] and counts in an int[], slots are found with Fibonacci
+ * hashing and collisions are resolved by linear probing. The table doubles
+ * when it is three quarters full. A slot is empty while its count is 0, so
+ * any long can be a key.
+ */
+public class LongIntHashMap implements SequenceSink {
+
+	private final static int DEFAULT_CAPACITY = 1 << 10;
+
+	private long[] keys;
+	private int[] counts;
+	private int size;
+	private int shift;
+	private int mask;
+	private int threshold;
+
+	public LongIntHashMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a map that holds up to expectedSize keys without resizing.
+	 * @param expectedSize - expected number of keys
+	 */
+	public LongIntHashMap(int expectedSize) {
+		int capacity = 4;
+		while (capacity - (capacity >>> 2) < expectedSize) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	/**
+	 * Adds one occurrence of the sequence.
+	 * @param sequence - encoded sequence
+	 */
+	public void add(long sequence) {
+		add(sequence, 1);
+	}
+
+	/**
+	 * Adds count to the count of the key.
+	 * @param key - key
+	 * @param count - positive count
+	 */
+	public void add(long key, int count) {
+		int i = index(key);
+		while (counts[i] != 0) {
+			if (keys[i] == key) {
+				counts[i] += count;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		counts[i] = count;
+		if (++size > threshold) {
+			resize();
+		}
+	}
+
+	/**
+	 * Returns the count of the key.
+	 * @param key - key
+	 * @return count, 0 if the key is not in the map
+	 */
+	public int get(long key) {
+		int i = index(key);
+		while (counts[i] != 0) {
+			if (keys[i] == key) {
+				return counts[i];
+			}
+			i = (i + 1) & mask;
+		}
+		return 0;
+	}
+
+	/**
+	 * Adds all counts of another map to this map.
+	 * @param other - map to add
+	 */
+	public void addAll(LongIntHashMap other) {
+		for (int i = 0; i < other.keys.length; i++) {
+			if (other.counts[i] != 0) {
+				add(other.keys[i], other.counts[i]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of distinct keys.
+	 * @return number of keys
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the keys in increasing order. The counts are written to counts
+	 * in the same order.
+	 * @param counts - receives the counts, at least size() long
+	 * @return sorted keys
+	 */
+	public long[] sortedKeys(int[] counts) {
+		long[] sorted = new long[size];
+		int n = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (this.counts[i] != 0) {
+				sorted[n++] = keys[i];
+			}
+		}
+		Arrays.sort(sorted);
+		for (int i = 0; i < n; i++) {
+			counts[i] = get(sorted[i]);
+		}
+		return sorted;
+	}
+
+	/**
+	 * Removes all keys, keeping the capacity.
+	 */
+	public void clear() {
+		Arrays.fill(counts, 0);
+		size = 0;
+	}
+
+	/**
+	 * Fibonacci hashing takes the high bits of the product.
+	 */
+	private int index(long key) {
+		return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		counts = new int[capacity];
+		mask = capacity - 1;
+		shift = 64 - Integer.numberOfTrailingZeros(capacity);
+		threshold = capacity - (capacity >>> 2);
+	}
+
+	/**
+	 * Doubles the table and reinserts every key.
+	 */
+	private void resize() {
+		long[] oldKeys = keys;
+		int[] oldCounts = counts;
+		allocate(keys.length * 2);
+
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldCounts[j] != 0) {
+				int i = index(oldKeys[j]);
+				while (counts[i] != 0) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				counts[i] = oldCounts[j];
+			}
+		}
+	}
+}
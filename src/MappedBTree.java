@@ -0,0 +1,528 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Read-only view of a BTree file that is memory-mapped with FileChannel.map.
+ * Searches read keys, frequencies and child offsets directly from the mapped
+ * blocks, so no nodes, TreeObjects or Sequences are created during a search.
+ *
+ * Files larger than SEGMENT_SIZE are mapped in several segments. The segment
+ * size is a multiple of every block size, so a node never spans two segments.
+ *
+ * Files in the B+Tree layout (see BTreeBulkLoader) are searched down to the
+ * leaves, and scans follow the links between the leaves. Files in the
+ * compressed layout are searched the same way, decoding the packed keys of
+ * every page in place (see PackedPage).
+ *
+ * A MappedBTree is safe for any number of concurrent readers without
+ * locking: the mapping is read-only, its fields do not change after
+ * construction and searches only use absolute gets, which never modify the
+ * position of a buffer.
+ */
+public class MappedBTree implements KmerIndex {
+
+	private final static int SEGMENT_SHIFT = 30;
+	private final static long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+
+	/**
+	 * Position of number of keys, isLeaf and the first key within a node.
+	 */
+	private final static int N_POS = 8;
+	private final static int LEAF_POS = 12;
+	private final static int KEYS_POS = 13;
+	private final static int KEY_SIZE = 12;
+
+	private int degree;
+	private int sequenceLength;
+	private int blockSize;
+	private long root;
+	private boolean bplus;
+	private boolean compressed;
+	private boolean canonical;
+	private long buildId;
+	private int childrenPos;
+
+	private RandomAccessFile file;
+	private MappedByteBuffer[] segments;
+
+	/**
+	 * Maps an existing BTree file.
+	 * @param bTreeFile - file the tree is stored in
+	 * @throws IOException
+	 */
+	public MappedBTree(String bTreeFile) throws IOException {
+
+		this.file = new RandomAccessFile(bTreeFile, "r");
+		FileChannel channel = file.getChannel();
+		long length = channel.size();
+
+		int count = (int) ((length + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+		this.segments = new MappedByteBuffer[count];
+		for (int i = 0; i < count; i++) {
+			long start = (long) i << SEGMENT_SHIFT;
+			segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+					Math.min(SEGMENT_SIZE, length - start));
+		}
+
+		ByteBuffer metadata = segments[0];
+		this.degree = (int) metadata.getLong(0);
+		this.root = metadata.getLong(8);
+		this.sequenceLength = metadata.getInt(20);
+		this.blockSize = metadata.getInt(24);
+		this.bplus = metadata.getInt(28) == BTree.LAYOUT_BPLUS;
+		this.compressed = metadata.getInt(28) == BTree.LAYOUT_COMPRESSED;
+		this.canonical = metadata.getInt(32) == 1;
+		this.buildId = metadata.getLong(BTree.BUILD_ID_POS);
+
+		this.childrenPos = KEYS_POS + (2 * degree - 1) * KEY_SIZE;
+	}
+
+	/**
+	 * Returns the frequency of the sequence, 0 if it is not in the tree.
+	 * @param key - encoded sequence (see Sequence.val())
+	 * @return frequency
+	 */
+	public int frequency(long key) {
+
+		if (compressed) {
+			return packedFrequency(key);
+		}
+
+		long node = root;
+		while (true) {
+			ByteBuffer segment = segments[(int) (node >>> SEGMENT_SHIFT)];
+			int pos = (int) (node & (SEGMENT_SIZE - 1));
+			int i = floorIndex(segment, pos, key);
+			boolean leaf = segment.get(pos + LEAF_POS) == 1;
+
+			// If the key was found (in a leaf for B+Trees)
+			if (i >= 0 && key == segment.getLong(pos + KEYS_POS + i * KEY_SIZE)
+					&& (leaf || !bplus)) {
+				return segment.getInt(pos + KEYS_POS + i * KEY_SIZE + 8);
+
+				// If there are no more children to search
+			} else if (leaf) {
+				return 0;
+			}
+			node = segment.getLong(pos + childrenPos + (i + 1) * 8);
+		}
+	}
+
+	/**
+	 * Returns the frequency of every sequence. The sequences are sorted and
+	 * duplicates removed, then the tree is walked once in key order, so every
+	 * node on the paths to the sequences is visited once per batch.
+	 * @param keys - encoded sequences, in any order
+	 * @return frequency of every sequence, in the order of keys
+	 */
+	public int[] searchBatch(long[] keys) {
+
+		long[] sorted = keys.clone();
+		Arrays.sort(sorted);
+		int unique = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (unique == 0 || sorted[i] != sorted[unique - 1]) {
+				sorted[unique++] = sorted[i];
+			}
+		}
+
+		int[] found = new int[unique];
+		searchSorted(sorted, 0, unique, found);
+
+		int[] frequencies = new int[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			frequencies[i] = found[Arrays.binarySearch(sorted, 0, unique, keys[i])];
+		}
+		return frequencies;
+	}
+
+	/**
+	 * Looks up a range of sorted sequences in one walk of the tree.
+	 * @param keys - encoded sequences, strictly increasing from from to to
+	 * @param from - index of the first sequence
+	 * @param to - index after the last sequence
+	 * @param frequencies - receives the frequency of every sequence, at the
+	 *          same index
+	 */
+	public void searchSorted(long[] keys, int from, int to, int[] frequencies) {
+		if (from < to) {
+			searchSorted(root, keys, from, to, frequencies);
+		}
+	}
+
+	private void searchSorted(long node, long[] keys, int from, int to,
+			int[] frequencies) {
+
+		if (compressed) {
+			packedSearchSorted(node, keys, from, to, frequencies);
+			return;
+		}
+
+		ByteBuffer segment = segments[(int) (node >>> SEGMENT_SHIFT)];
+		int pos = (int) (node & (SEGMENT_SIZE - 1));
+		int n = segment.getInt(pos + N_POS);
+		boolean leaf = segment.get(pos + LEAF_POS) == 1;
+
+		int i = from;
+		while (i < to) {
+			long key = keys[i];
+			int j = floorIndex(segment, pos, key);
+
+			// If the key was found (in a leaf for B+Trees)
+			if (j >= 0 && key == segment.getLong(pos + KEYS_POS + j * KEY_SIZE)
+					&& (leaf || !bplus)) {
+				frequencies[i++] = segment.getInt(pos + KEYS_POS + j * KEY_SIZE + 8);
+			} else if (leaf) {
+				frequencies[i++] = 0;
+			} else {
+				// All following keys below the next separator are in the same child
+				int end = to;
+				if (j + 1 < n) {
+					long bound = segment.getLong(pos + KEYS_POS + (j + 1) * KEY_SIZE);
+					end = i + 1;
+					while (end < to && keys[end] < bound) {
+						end++;
+					}
+				}
+				searchSorted(segment.getLong(pos + childrenPos + (j + 1) * 8), keys, i,
+						end, frequencies);
+				i = end;
+			}
+		}
+	}
+
+	/**
+	 * Returns an iterator over all sequences from lo to hi, inclusive, in
+	 * increasing order. The iterator descends to lo once and then walks the
+	 * tree in order, reading the mapped blocks as it goes, so the result is
+	 * never held in memory.
+	 * @param lo - first encoded sequence
+	 * @param hi - last encoded sequence
+	 * @return iterator over the sequences and their frequencies
+	 */
+	public SequenceIterator rangeScan(long lo, long hi) {
+		return compressed ? new PackedScan(lo, hi) : new Scan(lo, hi);
+	}
+
+	/**
+	 * Returns an iterator over all sequences that start with the prefix, in
+	 * increasing order.
+	 * @param prefix - first bases, at most the sequence length
+	 * @return iterator over the sequences and their frequencies
+	 */
+	public SequenceIterator prefixScan(String prefix) {
+		long[] range = Sequence.prefixRange(prefix, sequenceLength);
+		return rangeScan(range[0], range[1]);
+	}
+
+	/**
+	 * Returns the n most frequent sequences. All sequences are scanned in
+	 * order through a bounded heap, so only n of them are held in memory.
+	 * @param n - number of sequences
+	 * @return the most frequent sequences
+	 * @throws IOException
+	 */
+	public TopSequences top(int n) throws IOException {
+		TopSequences top = new TopSequences(n);
+		top.addAll(rangeScan(0, Long.MAX_VALUE));
+		return top;
+	}
+
+	/**
+	 * Returns the frequency of the sequence in the compressed layout.
+	 */
+	private int packedFrequency(long key) {
+
+		long node = root;
+		while (true) {
+			ByteBuffer segment = segments[(int) (node >>> SEGMENT_SHIFT)];
+			int pos = (int) (node & (SEGMENT_SIZE - 1));
+			int i = PackedPage.floorIndex(segment, pos, key);
+
+			if (segment.get(pos + LEAF_POS) != 1) {
+				node = PackedPage.child(segment, pos, i + 1, blockSize);
+			} else if (i >= 0 && key == PackedPage.leafKey(segment, pos, i)) {
+				return PackedPage.leafFrequency(segment, pos, i);
+			} else {
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * Looks up a range of sorted sequences below the node in the compressed
+	 * layout.
+	 */
+	private void packedSearchSorted(long node, long[] keys, int from, int to,
+			int[] frequencies) {
+
+		ByteBuffer segment = segments[(int) (node >>> SEGMENT_SHIFT)];
+		int pos = (int) (node & (SEGMENT_SIZE - 1));
+		int n = segment.getInt(pos + N_POS);
+
+		if (segment.get(pos + LEAF_POS) == 1) {
+			for (int i = from; i < to; i++) {
+				int j = PackedPage.floorIndex(segment, pos, keys[i]);
+				if (j >= 0 && keys[i] == PackedPage.leafKey(segment, pos, j)) {
+					frequencies[i] = PackedPage.leafFrequency(segment, pos, j);
+				} else {
+					frequencies[i] = 0;
+				}
+			}
+			return;
+		}
+
+		int i = from;
+		while (i < to) {
+			int j = PackedPage.floorIndex(segment, pos, keys[i]);
+
+			// All following keys below the next separator are in the same child
+			int end = to;
+			if (j + 1 < n) {
+				long bound = PackedPage.separator(segment, pos, j + 1);
+				end = i + 1;
+				while (end < to && keys[end] < bound) {
+					end++;
+				}
+			}
+			packedSearchSorted(PackedPage.child(segment, pos, j + 1, blockSize),
+					keys, i, end, frequencies);
+			i = end;
+		}
+	}
+
+	/**
+	 * Binary search for the last key of a node that is less than or equal to
+	 * the key. Package-private for NodeSearchTarget.
+	 * @param segment - segment holding the node
+	 * @param pos - position of the node in the segment
+	 * @param key - key to find
+	 * @return index of the last key <= key, -1 if every key is greater
+	 */
+	static int floorIndex(ByteBuffer segment, int pos, long key) {
+		int low = 0, high = segment.getInt(pos + N_POS) - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (segment.getLong(pos + KEYS_POS + mid * KEY_SIZE) <= key) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return high;
+	}
+
+	/**
+	 * In-order walk from lo to hi. The stack holds the path from the root to
+	 * the current node, with the index of the next key of every node on it.
+	 * Below the top of the stack, the child before that key has already been
+	 * walked. In the B+Tree layout the stack only holds the current leaf,
+	 * which is replaced by the next leaf when all of its keys were read.
+	 */
+	private class Scan implements SequenceIterator {
+		private long hi;
+		private long[] nodes = new long[64];
+		private int[] indexes = new int[64];
+		private int depth;
+		private long sequence;
+		private int frequency;
+
+		public Scan(long lo, long hi) {
+			this.hi = hi;
+
+			// Descend to the first key >= lo
+			long node = root;
+			while (true) {
+				ByteBuffer segment = segments[(int) (node >>> SEGMENT_SHIFT)];
+				int pos = (int) (node & (SEGMENT_SIZE - 1));
+				int i = floorIndex(segment, pos, lo);
+				boolean leaf = segment.get(pos + LEAF_POS) == 1;
+				boolean found = i >= 0
+						&& lo == segment.getLong(pos + KEYS_POS + i * KEY_SIZE)
+						&& (leaf || !bplus);
+				if (!found) {
+					i++;
+				}
+				if (leaf || !bplus) {
+					push(node, i);
+				}
+				if (found || leaf) {
+					break;
+				}
+				node = segment.getLong(pos + childrenPos + i * 8);
+			}
+		}
+
+		public boolean next() {
+			while (depth > 0) {
+				long node = nodes[depth - 1];
+				int i = indexes[depth - 1];
+				ByteBuffer segment = segments[(int) (node >>> SEGMENT_SHIFT)];
+				int pos = (int) (node & (SEGMENT_SIZE - 1));
+
+				if (i >= segment.getInt(pos + N_POS)) {
+					long next = segment.getLong(pos + childrenPos);
+					if (bplus && next != 0) {
+						nodes[depth - 1] = next;
+						indexes[depth - 1] = 0;
+					} else {
+						depth--;
+					}
+					continue;
+				}
+
+				long key = segment.getLong(pos + KEYS_POS + i * KEY_SIZE);
+				if (key > hi) {
+					depth = 0;
+					return false;
+				}
+				sequence = key;
+				frequency = segment.getInt(pos + KEYS_POS + i * KEY_SIZE + 8);
+				indexes[depth - 1] = i + 1;
+
+				// Walk the child after the key next, from its smallest key
+				if (segment.get(pos + LEAF_POS) != 1) {
+					long child = segment.getLong(pos + childrenPos + (i + 1) * 8);
+					while (true) {
+						push(child, 0);
+						segment = segments[(int) (child >>> SEGMENT_SHIFT)];
+						pos = (int) (child & (SEGMENT_SIZE - 1));
+						if (segment.get(pos + LEAF_POS) == 1) {
+							break;
+						}
+						child = segment.getLong(pos + childrenPos);
+					}
+				}
+				return true;
+			}
+			return false;
+		}
+
+		public long sequence() {
+			return sequence;
+		}
+
+		public int frequency() {
+			return frequency;
+		}
+
+		private void push(long node, int index) {
+			if (depth == nodes.length) {
+				nodes = Arrays.copyOf(nodes, depth * 2);
+				indexes = Arrays.copyOf(indexes, depth * 2);
+			}
+			nodes[depth] = node;
+			indexes[depth++] = index;
+		}
+	}
+
+	/**
+	 * Walk from lo to hi in the compressed layout: descends to the leaf with
+	 * the first key >= lo, then reads the leaves through their links.
+	 */
+	private class PackedScan implements SequenceIterator {
+		private long hi;
+		private ByteBuffer segment;
+		private int pos;
+		private int n;
+		private int index;
+		private long sequence;
+		private int frequency;
+
+		public PackedScan(long lo, long hi) {
+			this.hi = hi;
+
+			long node = root;
+			while (true) {
+				segment = segments[(int) (node >>> SEGMENT_SHIFT)];
+				pos = (int) (node & (SEGMENT_SIZE - 1));
+				int i = PackedPage.floorIndex(segment, pos, lo);
+				if (segment.get(pos + LEAF_POS) == 1) {
+					if (i < 0 || lo != PackedPage.leafKey(segment, pos, i)) {
+						i++;
+					}
+					n = segment.getInt(pos + N_POS);
+					index = i;
+					break;
+				}
+				node = PackedPage.child(segment, pos, i + 1, blockSize);
+			}
+		}
+
+		public boolean next() {
+			while (index >= n) {
+				long next = segment == null ? 0 : segment.getLong(pos
+						+ PackedPage.NEXT_POS);
+				if (next == 0) {
+					segment = null;
+					return false;
+				}
+				segment = segments[(int) (next >>> SEGMENT_SHIFT)];
+				pos = (int) (next & (SEGMENT_SIZE - 1));
+				n = segment.getInt(pos + N_POS);
+				index = 0;
+			}
+
+			long key = PackedPage.leafKey(segment, pos, index);
+			if (key > hi) {
+				segment = null;
+				n = 0;
+				return false;
+			}
+			sequence = key;
+			frequency = PackedPage.leafFrequency(segment, pos, index);
+			index++;
+			return true;
+		}
+
+		public long sequence() {
+			return sequence;
+		}
+
+		public int frequency() {
+			return frequency;
+		}
+	}
+
+	public int getDegree() {
+		return degree;
+	}
+
+	public int getSequenceLength() {
+		return sequenceLength;
+	}
+
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Returns true if the tree holds canonical sequences, the smaller of every
+	 * sequence and its reverse complement (see Sequence.canonical()).
+	 * @return true for canonical sequences
+	 */
+	public boolean isCanonical() {
+		return canonical;
+	}
+
+	/**
+	 * Returns the random id written with the tree (see BTree.newBuildId()).
+	 * @return build id
+	 */
+	public long getBuildId() {
+		return buildId;
+	}
+
+	/**
+	 * Closes the BTree file. The mapping stays valid until it is garbage
+	 * collected.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		file.close();
+	}
+}
@@ -0,0 +1,231 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Page format of the compressed layout (BTree.LAYOUT_COMPRESSED), written by
+ * BTreeBulkLoader and read by MappedBTree. It is a B+Tree: every sequence is
+ * stored in a leaf and the leaves are linked, but the number of keys of a
+ * node is not fixed, nodes are filled until the block is full.
+ *
+ * Leaf:
+ * 8xb Key (Byte offset), 4xb Number of keys, 1xb isLeaf (1),
+ * 8xb Next leaf (Byte offset, 0 for the last leaf),
+ * 8xb Base (first sequence), 1xb Key width, 1xb Frequency width,
+ * Keys: sequence - base of every key, packed to key width bits,
+ * Frequencies: frequency - 1 of every key, packed to frequency width bits.
+ *
+ * Internal node with n separators and n + 1 children:
+ * 8xb Key (Byte offset), 4xb Number of separators, 1xb isLeaf (0),
+ * 8xb Base (first separator), 1xb Shift, 1xb Separator width,
+ * 8xb Child base (block number of the first child), 1xb Child width,
+ * Separators: (separator - base) >>> shift, packed to separator width bits,
+ * Children: block number - child base, packed to child width bits.
+ *
+ * A separator is the shortest prefix of the first key of the right subtree
+ * that is still greater than the last key of the left subtree (see
+ * separator()), so separators end in zero bits, which are shifted out.
+ * Every packed value, frequencies included, is read directly by its index
+ * with one or two absolute gets, so every page keeps SLACK unused bytes at
+ * its end. A leaf whose sequences all occur once stores no frequency bits.
+ */
+public class PackedPage {
+
+	/**
+	 * Position of the fields every node has, as in the other layouts.
+	 */
+	public final static int N_POS = 8;
+	public final static int LEAF_POS = 12;
+
+	/**
+	 * Position of the fields of a leaf.
+	 */
+	public final static int NEXT_POS = 13;
+	public final static int LEAF_BASE_POS = 21;
+	public final static int LEAF_WIDTH_POS = 29;
+	public final static int LEAF_FREQUENCY_WIDTH_POS = 30;
+	public final static int LEAF_KEYS_POS = 31;
+
+	/**
+	 * Position of the fields of an internal node.
+	 */
+	public final static int BASE_POS = 13;
+	public final static int SHIFT_POS = 21;
+	public final static int WIDTH_POS = 22;
+	public final static int CHILD_BASE_POS = 23;
+	public final static int CHILD_WIDTH_POS = 31;
+	public final static int SEPARATORS_POS = 32;
+
+	/**
+	 * Bytes kept free at the end of a page, so that a packed value can be read
+	 * with a long and one more byte.
+	 */
+	public final static int SLACK = 9;
+
+	/**
+	 * Returns the number of bits needed to store the value.
+	 * @param value - non-negative value
+	 * @return number of bits, 0 for 0
+	 */
+	public static int width(long value) {
+		return 64 - Long.numberOfLeadingZeros(value);
+	}
+
+	/**
+	 * Returns the number of bytes of count values packed to width bits.
+	 * @param count - number of values
+	 * @param width - bits per value
+	 * @return number of bytes
+	 */
+	public static int packedSize(long count, int width) {
+		return (int) ((count * width + 7) >>> 3);
+	}
+
+	/**
+	 * Returns the shortest prefix of right that is still greater than left:
+	 * right with every bit below the highest bit in which they differ cleared.
+	 * Every key up to left is less than it, every key from right on is
+	 * greater or equal.
+	 * @param left - last key of the left subtree
+	 * @param right - first key of the right subtree, greater than left
+	 * @return separator
+	 */
+	public static long separator(long left, long right) {
+		int bit = 63 - Long.numberOfLeadingZeros(left ^ right);
+		return (right >>> bit) << bit;
+	}
+
+	/**
+	 * Reads the value at index of values packed to width bits.
+	 * @param buffer - buffer holding the page
+	 * @param pos - position of the packed values
+	 * @param index - index of the value
+	 * @param width - bits per value, at most 63
+	 * @return value
+	 */
+	public static long get(ByteBuffer buffer, int pos, int index, int width) {
+		if (width == 0) {
+			return 0;
+		}
+		long bit = (long) index * width;
+		int at = pos + (int) (bit >>> 3);
+		int shift = (int) (bit & 7);
+		long value = (buffer.getLong(at) << shift) >>> (64 - width);
+		if (shift + width > 64) {
+			value |= (buffer.get(at + 8) & 0xff) >>> (72 - shift - width);
+		}
+		return value;
+	}
+
+	/**
+	 * Packs values to width bits, starting at the position of the buffer,
+	 * and moves the position after them.
+	 * @param buffer - buffer to write to
+	 * @param values - values, each less than 2^width
+	 * @param from - index of the first value
+	 * @param count - number of values
+	 * @param base - subtracted from every value before it is shifted
+	 * @param shift - number of low bits dropped from every value
+	 * @param width - bits per value
+	 */
+	public static void put(ByteBuffer buffer, long[] values, int from,
+			int count, long base, int shift, int width) {
+		long bits = 0;
+		int filled = 0;
+		for (int i = from; i < from + count; i++) {
+			long value = (values[i] - base) >>> shift;
+			for (int b = width - 1; b >= 0; b--) {
+				bits = (bits << 1) | ((value >>> b) & 1);
+				if (++filled == 8) {
+					buffer.put((byte) bits);
+					bits = 0;
+					filled = 0;
+				}
+			}
+		}
+		if (filled > 0) {
+			buffer.put((byte) (bits << (8 - filled)));
+		}
+	}
+
+	/**
+	 * Returns the key at index of the leaf at pos.
+	 */
+	public static long leafKey(ByteBuffer buffer, int pos, int index) {
+		return buffer.getLong(pos + LEAF_BASE_POS)
+				+ get(buffer, pos + LEAF_KEYS_POS, index, buffer.get(pos
+						+ LEAF_WIDTH_POS));
+	}
+
+	/**
+	 * Returns the position of the first frequency of the leaf at pos.
+	 */
+	public static int frequenciesPos(ByteBuffer buffer, int pos) {
+		return pos + LEAF_KEYS_POS
+				+ packedSize(buffer.getInt(pos + N_POS), buffer.get(pos
+						+ LEAF_WIDTH_POS));
+	}
+
+	/**
+	 * Returns the frequency at index of the leaf at pos.
+	 */
+	public static int leafFrequency(ByteBuffer buffer, int pos, int index) {
+		return 1 + (int) get(buffer, frequenciesPos(buffer, pos), index,
+				buffer.get(pos + LEAF_FREQUENCY_WIDTH_POS));
+	}
+
+	/**
+	 * Returns the separator at index of the internal node at pos.
+	 */
+	public static long separator(ByteBuffer buffer, int pos, int index) {
+		return buffer.getLong(pos + BASE_POS)
+				+ (get(buffer, pos + SEPARATORS_POS, index, buffer.get(pos
+						+ WIDTH_POS)) << buffer.get(pos + SHIFT_POS));
+	}
+
+	/**
+	 * Returns the byte offset of the child at index of the internal node at
+	 * pos.
+	 */
+	public static long child(ByteBuffer buffer, int pos, int index,
+			int blockSize) {
+		int n = buffer.getInt(pos + N_POS);
+		int childrenPos = pos + SEPARATORS_POS
+				+ packedSize(n, buffer.get(pos + WIDTH_POS));
+		long block = buffer.getLong(pos + CHILD_BASE_POS)
+				+ get(buffer, childrenPos, index, buffer.get(pos + CHILD_WIDTH_POS));
+		return block * blockSize;
+	}
+
+	/**
+	 * Binary search for the last key (leaf) or separator (internal node) of
+	 * the node at pos that is less than or equal to the key.
+	 * @return index of the last key <= key, -1 if every key is greater
+	 */
+	public static int floorIndex(ByteBuffer buffer, int pos, long key) {
+		int low = 0, high = buffer.getInt(pos + N_POS) - 1;
+		if (buffer.get(pos + LEAF_POS) == 1) {
+			long base = buffer.getLong(pos + LEAF_BASE_POS);
+			int width = buffer.get(pos + LEAF_WIDTH_POS);
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (base + get(buffer, pos + LEAF_KEYS_POS, mid, width) <= key) {
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+		} else {
+			long base = buffer.getLong(pos + BASE_POS);
+			int shift = buffer.get(pos + SHIFT_POS);
+			int width = buffer.get(pos + WIDTH_POS);
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				if (base + (get(buffer, pos + SEPARATORS_POS, mid, width) << shift) <= key) {
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+		}
+		return high;
+	}
+}
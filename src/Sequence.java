@@ -34,11 +34,11 @@ public class Sequence implements Comparable<Sequence>, Serializable {
 		}
 		
 		this.length = sequenceLength;
+		long val = 0;
 		char c;
 		
 		for (int i = 0, p = str.length() - 1; p >= 0; i++, p--) {
 			
-			//System.out.println("i:" + i + " p:" + p);
 			c = str.charAt(p);
 			switch (c) {
 			
@@ -52,20 +52,21 @@ public class Sequence implements Comparable<Sequence>, Serializable {
 					
 				case 'T':
 				case 't':
-					seq += (long) 3 * (long) Math.pow(2, i*2);
+					val |= 3L << (i * 2);
 					break;
 					
 				case 'C':
 				case 'c':
-					seq += (long) 1 * (long) Math.pow(2, i*2);
+					val |= 1L << (i * 2);
 					break;
 					
 				case 'G':
 				case 'g':
-					seq += (long) 2 * (long) Math.pow(2, i*2);
+					val |= 2L << (i * 2);
 					break;
 			}
 		}
+		this.seq = val;
 	}
 
 	public static Sequence[] parseSequences(String str, int sequenceLength){
@@ -90,6 +91,53 @@ public class Sequence implements Comparable<Sequence>, Serializable {
 		return al.toArray(new Sequence[al.size()]);
 	}
 	
+	/**
+	 * Returns the range of encoded sequences of the specified length that
+	 * start with the prefix. Bases are stored most significant first, so
+	 * these sequences are contiguous.
+	 * @param prefix - first bases, at most sequenceLength, may be empty
+	 * @param sequenceLength - length of the sequences
+	 * @return first and last encoded sequence with the prefix, inclusive
+	 */
+	public static long[] prefixRange(String prefix, int sequenceLength) {
+		if (prefix.length() > sequenceLength) {
+			throw new IllegalArgumentException("Prefix length (" + prefix.length()
+					+ ") was greater than sequenceLength (" + sequenceLength + ")");
+		}
+
+		int shift = 2 * (sequenceLength - prefix.length());
+		long lo = prefix.isEmpty() ? 0 : new Sequence(prefix, prefix.length())
+				.val() << shift;
+		return new long[] { lo, lo | ((1L << shift) - 1) };
+	}
+
+	/**
+	 * Returns the reverse complement of an encoded sequence. With a0 c1 g2 t3
+	 * the complement of a base is its code xor 3, so the sequence is
+	 * complemented by inverting all bits and reversed by reversing the bits
+	 * and swapping the two bits of every base back.
+	 * @param seq - encoded sequence
+	 * @param sequenceLength - length of the sequence
+	 * @return encoded reverse complement
+	 */
+	public static long reverseComplement(long seq, int sequenceLength) {
+		long r = Long.reverse(~seq);
+		r = ((r >>> 1) & 0x5555555555555555L) | ((r & 0x5555555555555555L) << 1);
+		return r >>> (64 - 2 * sequenceLength);
+	}
+
+	/**
+	 * Returns the canonical form of an encoded sequence, the smaller of the
+	 * sequence and its reverse complement. A sequence and its reverse
+	 * complement have the same canonical form.
+	 * @param seq - encoded sequence
+	 * @param sequenceLength - length of the sequence
+	 * @return encoded canonical sequence
+	 */
+	public static long canonical(long seq, int sequenceLength) {
+		return Math.min(seq, reverseComplement(seq, sequenceLength));
+	}
+
 	public static String toSequence(Sequence s) {
 		
 		String str = Long.toBinaryString(s.val());
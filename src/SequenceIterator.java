@@ -0,0 +1,28 @@
+import java.io.IOException;
+
+/**
+ * Streams encoded sequences (see Sequence.val()) and their frequencies in
+ * increasing order, one at a time, like a cursor. It starts before the first
+ * sequence, so next() must be called before sequence() and frequency().
+ */
+public interface SequenceIterator {
+
+	/**
+	 * Moves to the next sequence.
+	 * @return true if there is a next sequence, false at the end
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException;
+
+	/**
+	 * Returns the current sequence.
+	 * @return encoded sequence
+	 */
+	public long sequence();
+
+	/**
+	 * Returns the frequency of the current sequence.
+	 * @return frequency
+	 */
+	public int frequency();
+}
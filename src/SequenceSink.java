@@ -0,0 +1,14 @@
+import java.io.IOException;
+
+/**
+ * Receives encoded sequences (see Sequence.val()) read from a GBK file.
+ */
+public interface SequenceSink {
+
+	/**
+	 * Adds one occurrence of a sequence.
+	 * @param sequence - encoded sequence
+	 * @throws IOException
+	 */
+	public void add(long sequence) throws IOException;
+}
@@ -0,0 +1,284 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts encoded sequences and counts how often each one occurs, so that they
+ * can be bulk loaded into a BTree. Sequences are collected in a buffer; when
+ * it is full it is sorted and written to a temporary run file as (sequence,
+ * frequency) pairs. The buffer starts small and grows up to its size, so
+ * short inputs never allocate the whole buffer. distinctCount() merges the
+ * runs and the buffer once into a single run and counts its sequences on the
+ * way, load() then only reads that run back.
+ */
+public class SequenceSorter implements SequenceSink {
+
+	/**
+	 * Default buffer size, 8M sequences (64 MB).
+	 */
+	public final static int BUFFER_SIZE = 1 << 23;
+
+	private final static int INITIAL_SIZE = 1 << 16;
+
+	private long[] buffer;
+	private int size;
+	private int bufferSize;
+	private ArrayList<File> runs;
+	private long distinct;
+
+	/**
+	 * Creates a sorter with the default buffer size.
+	 */
+	public SequenceSorter() {
+		this(BUFFER_SIZE);
+	}
+
+	/**
+	 * Creates a sorter that keeps up to bufferSize sequences in memory.
+	 * @param bufferSize - number of sequences in memory
+	 */
+	public SequenceSorter(int bufferSize) {
+		this.buffer = new long[Math.min(bufferSize, INITIAL_SIZE)];
+		this.size = 0;
+		this.bufferSize = bufferSize;
+		this.runs = new ArrayList<File>();
+		this.distinct = -1;
+	}
+
+	public void add(long sequence) throws IOException {
+		if (size == buffer.length) {
+			if (buffer.length < bufferSize) {
+				buffer = Arrays.copyOf(buffer,
+						(int) Math.min(bufferSize, 2L * buffer.length));
+			} else {
+				writeRun();
+			}
+		}
+		buffer[size++] = sequence;
+		distinct = -1;
+	}
+
+	/**
+	 * Returns the number of distinct sequences added. If the sequences did not
+	 * fit in the buffer, the runs are merged into one.
+	 * @return number of distinct sequences
+	 * @throws IOException
+	 */
+	public long distinctCount() throws IOException {
+		if (distinct >= 0) {
+			return distinct;
+		}
+		if (runs.isEmpty()) {
+			Arrays.sort(buffer, 0, size);
+			distinct = 0;
+			for (int i = 0; i < size; i++) {
+				if (i == 0 || buffer[i] != buffer[i - 1]) {
+					distinct++;
+				}
+			}
+			return distinct;
+		}
+
+		File merged = File.createTempFile("sequences", ".run");
+		merged.deleteOnExit();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(merged), 1 << 16));
+		try {
+			distinct = merge(null, out);
+		} finally {
+			out.close();
+		}
+		close();
+		runs.add(merged);
+		size = 0;
+		return distinct;
+	}
+
+	/**
+	 * Appends every distinct sequence with its frequency, in increasing order,
+	 * to the loader. The loader must have been created with distinctCount()
+	 * keys.
+	 * @param loader - loader to append to
+	 * @throws IOException
+	 */
+	public void load(BTreeBulkLoader loader) throws IOException {
+		merge(loader, null);
+	}
+
+	/**
+	 * Deletes the temporary run files.
+	 */
+	public void close() {
+		for (File run : runs) {
+			run.delete();
+		}
+		runs.clear();
+	}
+
+	/**
+	 * Sorts the buffer and writes it to a new run file.
+	 * @throws IOException
+	 */
+	private void writeRun() throws IOException {
+		Arrays.sort(buffer, 0, size);
+
+		File run = File.createTempFile("sequences", ".run");
+		run.deleteOnExit();
+		runs.add(run);
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(run), 1 << 16));
+		try {
+			int i = 0;
+			while (i < size) {
+				long key = buffer[i];
+				int j = i + 1;
+				while (j < size && buffer[j] == key) {
+					j++;
+				}
+				out.writeLong(key);
+				out.writeInt(j - i);
+				i = j;
+			}
+		} finally {
+			out.close();
+		}
+
+		size = 0;
+	}
+
+	/**
+	 * Merges the runs and the sorted buffer, adding up the frequencies of equal
+	 * sequences.
+	 * @param loader - receives the merged sequences, may be null
+	 * @param out - receives the merged pairs, as in a run file, may be null
+	 * @return number of distinct sequences
+	 * @throws IOException
+	 */
+	private long merge(BTreeBulkLoader loader, DataOutputStream out)
+			throws IOException {
+		Arrays.sort(buffer, 0, size);
+
+		PriorityQueue<Run> queue = new PriorityQueue<Run>(runs.size() + 1,
+				new Comparator<Run>() {
+					public int compare(Run a, Run b) {
+						return a.key < b.key ? -1 : (a.key == b.key ? 0 : 1);
+					}
+				});
+		ArrayList<Run> opened = new ArrayList<Run>();
+		try {
+			Run memory = new Run(null);
+			if (memory.next()) {
+				queue.add(memory);
+			}
+			for (File file : runs) {
+				Run run = new Run(file);
+				opened.add(run);
+				if (run.next()) {
+					queue.add(run);
+				}
+			}
+
+			long count = 0;
+			while (!queue.isEmpty()) {
+				Run run = queue.poll();
+				long key = run.key;
+				int frequency = run.frequency;
+				if (run.next()) {
+					queue.add(run);
+				}
+
+				while (!queue.isEmpty() && queue.peek().key == key) {
+					run = queue.poll();
+					frequency += run.frequency;
+					if (run.next()) {
+						queue.add(run);
+					}
+				}
+
+				if (loader != null) {
+					loader.append(key, frequency);
+				}
+				if (out != null) {
+					out.writeLong(key);
+					out.writeInt(frequency);
+				}
+				count++;
+			}
+			return count;
+		} finally {
+			for (Run run : opened) {
+				run.close();
+			}
+		}
+	}
+
+	/**
+	 * Reads the (sequence, frequency) pairs of a run file, or of the sorted
+	 * buffer.
+	 */
+	private class Run {
+		private DataInputStream in;
+		private int position;
+		private long key;
+		private int frequency;
+
+		/**
+		 * @param file - run file, null for the buffer
+		 */
+		public Run(File file) throws IOException {
+			if (file != null) {
+				this.in = new DataInputStream(new BufferedInputStream(
+						new FileInputStream(file), 1 << 16));
+			}
+			this.position = 0;
+		}
+
+		/**
+		 * Advances to the next pair.
+		 * @return false if there are no more pairs
+		 */
+		public boolean next() throws IOException {
+			if (in == null) {
+				if (position == size) {
+					return false;
+				}
+				key = buffer[position];
+				int j = position + 1;
+				while (j < size && buffer[j] == key) {
+					j++;
+				}
+				frequency = j - position;
+				position = j;
+				return true;
+			}
+
+			try {
+				key = in.readLong();
+				frequency = in.readInt();
+				return true;
+			} catch (EOFException e) {
+				return false;
+			}
+		}
+
+		/**
+		 * Closes the run file.
+		 */
+		public void close() throws IOException {
+			if (in != null) {
+				in.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,144 @@
+import java.io.IOException;
+
+/**
+ * Keeps the n most frequent of the sequences added to it, in a bounded
+ * min-heap of primitive arrays. The least frequent sequence kept is at the
+ * root, so a sequence is added in O(log n) and only if it is more frequent.
+ * Memory is bounded by n, no matter how many sequences are streamed through.
+ *
+ * Sequences with the same frequency are ordered by increasing sequence, so
+ * the result does not depend on the order in which they are added.
+ */
+public class TopSequences {
+
+	private int capacity;
+	private long[] sequences;
+	private int[] frequencies;
+	private int size;
+
+	/**
+	 * Creates an empty heap for the n most frequent sequences.
+	 * @param n - number of sequences to keep
+	 */
+	public TopSequences(int n) {
+		if (n < 0) {
+			throw new IllegalArgumentException("n must not be negative: " + n);
+		}
+		this.capacity = n;
+		this.sequences = new long[n];
+		this.frequencies = new int[n];
+	}
+
+	/**
+	 * Adds a sequence, keeping it only if it is among the n most frequent.
+	 * @param sequence - encoded sequence
+	 * @param frequency - frequency of the sequence
+	 */
+	public void add(long sequence, int frequency) {
+		if (size < capacity) {
+			sequences[size] = sequence;
+			frequencies[size] = frequency;
+			siftUp(size++);
+		} else if (size > 0 && before(sequence, frequency, sequences[0], frequencies[0])) {
+			sequences[0] = sequence;
+			frequencies[0] = frequency;
+			siftDown(0, size);
+		}
+	}
+
+	/**
+	 * Adds every remaining sequence of the iterator.
+	 * @param iterator - sequences and their frequencies
+	 * @throws IOException
+	 */
+	public void addAll(SequenceIterator iterator) throws IOException {
+		while (iterator.next()) {
+			add(iterator.sequence(), iterator.frequency());
+		}
+	}
+
+	/**
+	 * Returns the number of sequences kept, at most n.
+	 * @return number of sequences
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the sequences kept, most frequent first. The frequencies are
+	 * written to frequencies in the same order.
+	 * @param frequencies - receives the frequencies, at least size() long
+	 * @return sorted sequences
+	 */
+	public long[] sortedSequences(int[] frequencies) {
+		long[] sorted = new long[size];
+		int[] counts = new int[size];
+		System.arraycopy(this.sequences, 0, sorted, 0, size);
+		System.arraycopy(this.frequencies, 0, counts, 0, size);
+
+		// Heapsort: moving the least frequent to the end leaves the most
+		// frequent first
+		TopSequences heap = new TopSequences(0);
+		heap.sequences = sorted;
+		heap.frequencies = counts;
+		for (int end = size - 1; end > 0; end--) {
+			heap.swap(0, end);
+			heap.siftDown(0, end);
+		}
+
+		System.arraycopy(counts, 0, frequencies, 0, size);
+		return sorted;
+	}
+
+	/**
+	 * Returns true if sequence a comes before sequence b in the result: it is
+	 * more frequent, or as frequent and smaller.
+	 */
+	private static boolean before(long a, int frequencyA, long b, int frequencyB) {
+		return frequencyA > frequencyB || (frequencyA == frequencyB && a < b);
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!before(sequences[parent], frequencies[parent], sequences[i],
+					frequencies[i])) {
+				break;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i, int end) {
+		while (true) {
+			int last = i;
+			int left = 2 * i + 1, right = left + 1;
+			if (left < end
+					&& before(sequences[last], frequencies[last], sequences[left],
+							frequencies[left])) {
+				last = left;
+			}
+			if (right < end
+					&& before(sequences[last], frequencies[last], sequences[right],
+							frequencies[right])) {
+				last = right;
+			}
+			if (last == i) {
+				return;
+			}
+			swap(i, last);
+			i = last;
+		}
+	}
+
+	private void swap(int i, int j) {
+		long sequence = sequences[i];
+		sequences[i] = sequences[j];
+		sequences[j] = sequence;
+		int frequency = frequencies[i];
+		frequencies[i] = frequencies[j];
+		frequencies[j] = frequency;
+	}
+}